@@ -0,0 +1,85 @@
+package com.flixster.android.captioning;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the latency of finding the captions to display after a seek, against the size of the track, comparing a
+ * scan from the first caption, as captionHandler did on a backwards seek, with the time index of the CaptionTrack.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CueLookupBenchmark {
+
+    private static final int SEEKS = 256;
+
+    @Param({ "100", "1000", "10000", "100000" })
+    public int cues;
+
+    private CaptionTrack track;
+    private final int[] seekPositions = new int[SEEKS];
+    private final int[] activeIndices = new int[8];
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        track = SyntheticCaptions.track(cues);
+
+        Random random = new Random(0x5eed);
+        int duration = track.getEnd(track.size() - 1);
+        for (int i = 0; i < SEEKS; i++) {
+            seekPositions[i] = random.nextInt(duration);
+        }
+    }
+
+    /** Seeks to random positions, scanning from the first caption to the first one not yet ended */
+    @Benchmark
+    @OperationsPerInvocation(SEEKS)
+    public int linearScan() {
+        int found = 0;
+        for (int s = 0; s < SEEKS; s++) {
+            int currentPosition = seekPositions[s];
+            int ttIndex = 0;
+            for (int i = ttIndex; i < track.size(); i++) {
+                if (track.getEnd(i) <= currentPosition) {
+                    ttIndex++;
+                } else {
+                    if (track.getBegin(i) <= currentPosition) {
+                        found++;
+                    }
+                    break;
+                }
+            }
+            found += ttIndex;
+        }
+        return found;
+    }
+
+    /** Seeks to random positions, looking up the active captions in the time index */
+    @Benchmark
+    @OperationsPerInvocation(SEEKS)
+    public int indexedLookup() {
+        int found = 0;
+        for (int s = 0; s < SEEKS; s++) {
+            found += track.findActive(seekPositions[s], activeIndices);
+        }
+        return found;
+    }
+}
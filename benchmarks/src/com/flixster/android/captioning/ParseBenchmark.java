@@ -0,0 +1,88 @@
+package com.flixster.android.captioning;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures parsing of a whole caption file into a CaptionTrack, as done by CaptionedPlayer.fetchCaptions(). The
+ * score is in files/s, and the cues and bytes counters report the same throughput in cues/s and bytes/s. Run with
+ * "-prof gc" and divide gc.alloc.rate.norm by the cues parameter for the allocation per cue.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+
+    private static final int BATCH_SIZE = 25;
+
+    /** Counts the cues and bytes parsed by each benchmark, reported as rates alongside the score */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Throughput {
+        public long cues;
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            cues = 0;
+            bytes = 0;
+        }
+    }
+
+    /** The parser: ttml, ttml-parallel, webvtt or srt */
+    @Param({ "ttml", "ttml-parallel", "webvtt", "srt" })
+    public String parser;
+
+    @Param({ "1000", "10000", "100000" })
+    public int cues;
+
+    /** The number of styled spans, each on its own line, in every cue */
+    @Param({ "1", "4", "16" })
+    public int spansPerParagraph;
+
+    private byte[] document;
+    private CaptionFormatParser formatParser;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        CaptionFormat format = parser.startsWith("ttml") ? CaptionFormat.TTML : CaptionFormat.valueOf(parser
+                .toUpperCase());
+        document = SyntheticCaptions.generate(format, cues, spansPerParagraph);
+        formatParser = "ttml-parallel".equals(parser) ? new ParallelCaptionsXmlParser() : format.newParser();
+    }
+
+    @Benchmark
+    public CaptionTrack parse(Throughput throughput) {
+        final CaptionTrack track = new CaptionTrack();
+        boolean parsed = formatParser.parse(new ByteArrayInputStream(document), new CaptionSink() {
+            @Override
+            public void onCaptions(List<TimedTextElement> batch) {
+                track.addAll(batch);
+            }
+        }, BATCH_SIZE);
+        if (!parsed || !formatParser.isComplete() || track.size() != cues) {
+            throw new IllegalStateException("Parsed " + track.size() + " of " + cues + " cues");
+        }
+        throughput.cues += track.size();
+        throughput.bytes += document.length;
+        return track;
+    }
+}
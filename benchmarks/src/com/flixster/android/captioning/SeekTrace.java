@@ -0,0 +1,182 @@
+package com.flixster.android.captioning;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * A sequence of playback events replayed against the caption timeline: caption updates during playback, seeks, pauses
+ * and resumes. Traces are either generated from a fixed seed to mimic a user behaviour, or read from a file recorded
+ * from a player, with one event per line:
+ *
+ * <pre>
+ * tick 250      # caption update after 250 ms of playback
+ * seek 61000    # seek to 61 s
+ * pause
+ * resume
+ * </pre>
+ */
+final class SeekTrace {
+
+    /** Playback advanced by the value in milliseconds, followed by a caption update */
+    static final int TICK = 0;
+    /** The position was set to the value in milliseconds */
+    static final int SEEK = 1;
+    static final int PAUSE = 2;
+    static final int RESUME = 3;
+
+    /** The names of the generated traces */
+    static final String SCRUB = "scrub";
+    static final String SKIP = "skip";
+    static final String PAUSE_RESUME = "pause-resume";
+
+    private static final long SEED = 0x5eed;
+    private static final int EVENTS = 20000;
+    /** The interval of caption updates during playback, which is at most the resync interval of CaptionedPlayer */
+    private static final int TICK_INTERVAL_MS = 250;
+
+    private int[] kinds = new int[EVENTS];
+    private int[] values = new int[EVENTS];
+    private int size;
+
+    private SeekTrace() {
+    }
+
+    /** @return the kind of the event at the index, one of TICK, SEEK, PAUSE or RESUME */
+    public int getKind(int index) {
+        return kinds[index];
+    }
+
+    /** @return the milliseconds of the event at the index, for TICK and SEEK events */
+    public int getValue(int index) {
+        return values[index];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param name - The name of a generated trace, SCRUB, SKIP or PAUSE_RESUME, or otherwise the path of a recorded
+     *            trace
+     * @param duration - The duration of the track in milliseconds, within which generated seeks are made
+     */
+    public static SeekTrace create(String name, int duration) throws IOException {
+        if (SCRUB.equals(name)) {
+            return generateScrub(duration);
+        } else if (SKIP.equals(name)) {
+            return generateSkip(duration);
+        } else if (PAUSE_RESUME.equals(name)) {
+            return generatePauseResume(duration);
+        }
+        return read(name);
+    }
+
+    /** Playback interrupted by dragging the seek bar, which seeks every few tens of milliseconds */
+    private static SeekTrace generateScrub(int duration) {
+        Random random = new Random(SEED);
+        SeekTrace trace = new SeekTrace();
+        int position = 0;
+        trace.add(SEEK, position);
+        while (trace.size < EVENTS) {
+            position = trace.play(random, position, 2000 + random.nextInt(20000), duration);
+            int step = (random.nextBoolean() ? 1 : -1) * (1000 + random.nextInt(10000));
+            for (int seeks = 10 + random.nextInt(50); seeks > 0; seeks--) {
+                position = clamp(position + step + random.nextInt(1000) - 500, duration);
+                trace.add(SEEK, position);
+            }
+        }
+        return trace;
+    }
+
+    /** Playback interrupted by repeated 10 second skips forwards and backwards */
+    private static SeekTrace generateSkip(int duration) {
+        Random random = new Random(SEED);
+        SeekTrace trace = new SeekTrace();
+        int position = 0;
+        trace.add(SEEK, position);
+        while (trace.size < EVENTS) {
+            position = trace.play(random, position, random.nextInt(3000), duration);
+            int step = random.nextInt(4) == 0 ? -10000 : 10000;
+            for (int skips = 1 + random.nextInt(5); skips > 0; skips--) {
+                position = clamp(position + step, duration);
+                trace.add(SEEK, position);
+            }
+        }
+        return trace;
+    }
+
+    /** Playback repeatedly paused and resumed, sometimes in quick succession */
+    private static SeekTrace generatePauseResume(int duration) {
+        Random random = new Random(SEED);
+        SeekTrace trace = new SeekTrace();
+        int position = 0;
+        trace.add(SEEK, position);
+        while (trace.size < EVENTS) {
+            position = trace.play(random, position, random.nextInt(random.nextBoolean() ? 500 : 5000), duration);
+            trace.add(PAUSE, 0);
+            trace.add(RESUME, 0);
+        }
+        return trace;
+    }
+
+    /** Reads a recorded trace, which is replayed from position 0 */
+    private static SeekTrace read(String path) throws IOException {
+        SeekTrace trace = new SeekTrace();
+        trace.add(SEEK, 0);
+        BufferedReader reader = new BufferedReader(new FileReader(path));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int comment = line.indexOf('#');
+                String[] fields = (comment < 0 ? line : line.substring(0, comment)).trim().split("\\s+");
+                if (fields[0].length() == 0) {
+                    continue;
+                } else if (fields[0].equals("tick")) {
+                    trace.add(TICK, Integer.parseInt(fields[1]));
+                } else if (fields[0].equals("seek")) {
+                    trace.add(SEEK, Integer.parseInt(fields[1]));
+                } else if (fields[0].equals("pause")) {
+                    trace.add(PAUSE, 0);
+                } else if (fields[0].equals("resume")) {
+                    trace.add(RESUME, 0);
+                } else {
+                    throw new IOException("Unknown trace event: " + line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return trace;
+    }
+
+    /** Adds TICK events for playing from the position for the milliseconds, and returns the position reached */
+    private int play(Random random, int position, int millis, int duration) {
+        while (millis > 0 && position < duration) {
+            int interval = Math.min(millis, 1 + random.nextInt(TICK_INTERVAL_MS));
+            add(TICK, interval);
+            position += interval;
+            millis -= interval;
+        }
+        return Math.min(position, duration);
+    }
+
+    private void add(int kind, int value) {
+        if (size == kinds.length) {
+            int[] newKinds = new int[size * 2];
+            int[] newValues = new int[size * 2];
+            System.arraycopy(kinds, 0, newKinds, 0, size);
+            System.arraycopy(values, 0, newValues, 0, size);
+            kinds = newKinds;
+            values = newValues;
+        }
+        kinds[size] = kind;
+        values[size] = value;
+        size++;
+    }
+
+    private static int clamp(int position, int duration) {
+        return Math.max(0, Math.min(position, duration));
+    }
+}
@@ -0,0 +1,175 @@
+package com.flixster.android.captioning;
+
+import java.io.ByteArrayInputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates caption files of a given size for the benchmarks, so that results do not depend on sample files. The
+ * files are generated from a fixed seed and mimic typical broadcast captions: cues of one to three seconds with lines
+ * of varying length, occasional stacked regions and frequently repeated texts such as "[MUSIC]".
+ */
+final class SyntheticCaptions {
+
+    private static final long SEED = 0x5eed;
+    private static final String[] REPEATED_TEXTS = { "[MUSIC]", "[LAUGHTER]", "[APPLAUSE]", "- Yeah.", "- No." };
+    private static final String[] WORDS = { "the", "you", "what", "know", "going", "here", "right", "think",
+            "something", "really", "captain", "tonight", "nothing", "remember", "together", "anyway" };
+
+    private SyntheticCaptions() {
+    }
+
+    /**
+     * @param format - The format of the generated file
+     * @param cues - The number of cues in the file
+     * @param spansPerParagraph - The number of styled spans, and line breaks between them, in each cue
+     * @return the file encoded as UTF-8
+     */
+    public static byte[] generate(CaptionFormat format, int cues, int spansPerParagraph) {
+        String document;
+        switch (format) {
+            case WEBVTT:
+                document = generateLineFormat(cues, spansPerParagraph, true);
+                break;
+            case SRT:
+                document = generateLineFormat(cues, spansPerParagraph, false);
+                break;
+            case TTML:
+            default:
+                document = generateTtml(cues, spansPerParagraph);
+                break;
+        }
+        try {
+            return document.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param cues - The number of cues in the track
+     * @return a CaptionTrack parsed from a generated TTML file with one span per cue
+     */
+    public static CaptionTrack track(int cues) {
+        final CaptionTrack track = new CaptionTrack(cues);
+        byte[] document = generate(CaptionFormat.TTML, cues, 1);
+        new CaptionsXmlParser().parse(new ByteArrayInputStream(document), new CaptionSink() {
+            @Override
+            public void onCaptions(List<TimedTextElement> batch) {
+                track.addAll(batch);
+            }
+        }, cues);
+        track.complete();
+        return track;
+    }
+
+    private static String generateTtml(int cues, int spansPerParagraph) {
+        Random random = new Random(SEED);
+        StringBuilder sb = new StringBuilder(cues * (120 + 40 * spansPerParagraph));
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        sb.append("<tt xmlns=\"http://www.w3.org/ns/ttml\" xmlns:tts=\"http://www.w3.org/ns/ttml#styling\"");
+        sb.append(" xmlns:ttp=\"http://www.w3.org/ns/ttml#parameter\" ttp:frameRate=\"30\"");
+        sb.append(" ttp:frameRateMultiplier=\"1000 1001\" ttp:dropMode=\"dropNTSC\">\n<body>\n<div>\n");
+        int millis = 1000;
+        for (int i = 0; i < cues; i++) {
+            int duration = 1000 + random.nextInt(2000);
+            boolean stacked = i > 0 && random.nextInt(8) == 0;
+            if (!stacked) {
+                millis += duration + random.nextInt(500);
+            }
+            sb.append("<p begin=\"");
+            appendSmpte(sb, millis);
+            sb.append("\" end=\"");
+            appendSmpte(sb, millis + duration);
+            sb.append("\" tts:origin=\"").append(10 + random.nextInt(10)).append("% ")
+                    .append(stacked ? 85 : 80).append("%\">");
+            for (int span = 0; span < spansPerParagraph; span++) {
+                if (span > 0) {
+                    sb.append("<br/>");
+                }
+                sb.append("<span tts:fontStyle=\"italic\">");
+                appendText(sb, random);
+                sb.append("</span>");
+            }
+            sb.append("</p>\n");
+        }
+        sb.append("</div>\n</body>\n</tt>\n");
+        return sb.toString();
+    }
+
+    private static String generateLineFormat(int cues, int spansPerParagraph, boolean webVtt) {
+        Random random = new Random(SEED);
+        StringBuilder sb = new StringBuilder(cues * (60 + 40 * spansPerParagraph));
+        if (webVtt) {
+            sb.append("WEBVTT\n\n");
+        }
+        int millis = 1000;
+        for (int i = 0; i < cues; i++) {
+            int duration = 1000 + random.nextInt(2000);
+            millis += duration + random.nextInt(500);
+            sb.append(i + 1).append('\n');
+            appendTimestamp(sb, millis, webVtt ? '.' : ',');
+            sb.append(" --> ");
+            appendTimestamp(sb, millis + duration, webVtt ? '.' : ',');
+            if (webVtt) {
+                sb.append(" position:").append(10 + random.nextInt(10)).append("% line:80%");
+            }
+            sb.append('\n');
+            for (int span = 0; span < spansPerParagraph; span++) {
+                sb.append("<i>");
+                appendText(sb, random);
+                sb.append("</i>\n");
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static void appendText(StringBuilder sb, Random random) {
+        if (random.nextInt(5) == 0) {
+            sb.append(REPEATED_TEXTS[random.nextInt(REPEATED_TEXTS.length)]);
+            return;
+        }
+        int words = 3 + random.nextInt(6);
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+    }
+
+    /** Appends the time as a 29.97 drop-frame SMPTE time expression, approximating frames from milliseconds */
+    private static void appendSmpte(StringBuilder sb, int millis) {
+        int seconds = millis / 1000;
+        appendClock(sb, seconds);
+        sb.append(':');
+        appendTwoDigits(sb, (millis % 1000) * 30 / 1000);
+    }
+
+    private static void appendTimestamp(StringBuilder sb, int millis, char separator) {
+        appendClock(sb, millis / 1000);
+        sb.append(separator);
+        int fraction = millis % 1000;
+        if (fraction < 100) {
+            sb.append('0');
+        }
+        appendTwoDigits(sb, fraction);
+    }
+
+    private static void appendClock(StringBuilder sb, int seconds) {
+        appendTwoDigits(sb, seconds / 3600);
+        sb.append(':');
+        appendTwoDigits(sb, seconds / 60 % 60);
+        sb.append(':');
+        appendTwoDigits(sb, seconds % 60);
+    }
+
+    private static void appendTwoDigits(StringBuilder sb, int value) {
+        if (value < 10) {
+            sb.append('0');
+        }
+        sb.append(value);
+    }
+}
@@ -0,0 +1,84 @@
+package com.flixster.android.captioning;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the conversion of TTML time expressions into milliseconds for each frame-rate mode. The score is the time
+ * per expression, averaged over a set of random expressions of the same shape.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimeExpressionBenchmark {
+
+    private static final int EXPRESSIONS = 1024;
+
+    /** The frame-rate mode, as the ttp:frameRate value followed by the ttp:dropMode value */
+    @Param({ "30 nonDrop", "30 dropNTSC", "24 nonDrop", "25 nonDrop", "23.976 nonDrop" })
+    public String frameRateMode;
+
+    /** The shape of the expressions: HH:MM:SS:FF, HH:MM:SS.fff, an offset in seconds, or an offset in ticks */
+    @Param({ "frames", "fraction", "offset", "ticks" })
+    public String shape;
+
+    private TimingContext timing;
+    private final String[] expressions = new String[EXPRESSIONS];
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String[] mode = frameRateMode.split(" ");
+        String frameRate = mode[0];
+        String frameRateMultiplier = null;
+        if ("23.976".equals(frameRate)) {
+            frameRate = "24";
+            frameRateMultiplier = "1000 1001";
+        } else if ("dropNTSC".equals(mode[1])) {
+            frameRateMultiplier = "1000 1001";
+        }
+        timing = TimingContext.create(mode[1], frameRate, frameRateMultiplier, "10000000");
+
+        Random random = new Random(0x5eed);
+        for (int i = 0; i < EXPRESSIONS; i++) {
+            int hours = random.nextInt(3);
+            int minutes = random.nextInt(60);
+            int seconds = random.nextInt(60);
+            if ("frames".equals(shape)) {
+                expressions[i] = String.format("%02d:%02d:%02d:%02d", hours, minutes, seconds, 2 + random.nextInt(22));
+            } else if ("fraction".equals(shape)) {
+                expressions[i] = String.format("%02d:%02d:%02d.%03d", hours, minutes, seconds, random.nextInt(1000));
+            } else if ("offset".equals(shape)) {
+                expressions[i] = (hours * 3600 + minutes * 60 + seconds) + "." + random.nextInt(1000) + "s";
+            } else {
+                expressions[i] = ((hours * 3600 + minutes * 60 + seconds) * 10000000L + random.nextInt(10000000))
+                        + "t";
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EXPRESSIONS)
+    public void toMillis(Blackhole blackhole) {
+        for (int i = 0; i < EXPRESSIONS; i++) {
+            blackhole.consume(timing.toMillis(expressions[i]));
+        }
+    }
+}
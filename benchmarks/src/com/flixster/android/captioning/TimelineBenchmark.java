@@ -0,0 +1,81 @@
+package com.flixster.android.captioning;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the CaptionTimeline driven through normal playback, one tick per display frame, wrapping back to the start
+ * at the end of the track. The score is in ticks per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimelineBenchmark {
+
+    private static final int TICKS = 4096;
+
+    @Param({ "1000", "100000" })
+    public int cues;
+
+    /** The playback time between ticks in milliseconds */
+    @Param({ "1", "16" })
+    public int tickIntervalMs;
+
+    private CaptionTimeline timeline;
+    private int duration;
+    private int position;
+    private long events;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        CaptionTrack track = SyntheticCaptions.track(cues);
+        duration = track.getEnd(track.size() - 1);
+
+        timeline = new CaptionTimeline(4, new CaptionTimeline.Listener() {
+            @Override
+            public void onShow(int region, int index) {
+                events++;
+            }
+
+            @Override
+            public void onUpdate(int region, int index) {
+                events++;
+            }
+
+            @Override
+            public void onHide(int region) {
+                events++;
+            }
+        });
+        timeline.setTrack(track);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TICKS)
+    public long playback() {
+        for (int i = 0; i < TICKS; i++) {
+            position += tickIntervalMs;
+            if (position > duration) {
+                position = 0;
+            }
+            timeline.tick(position);
+        }
+        return events;
+    }
+}
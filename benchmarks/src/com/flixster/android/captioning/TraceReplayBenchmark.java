@@ -0,0 +1,261 @@
+package com.flixster.android.captioning;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.sun.management.ThreadMXBean;
+
+/**
+ * Replays a SeekTrace against the CaptionTimeline as the captionHandler of CaptionedPlayer drives it: a caption update
+ * ticks the timeline at the clock position, and a seek, pause or resume invalidates the timeline before ticking it, as
+ * notifyPlaybackChanged() does. Events are replayed in batches, as a single event takes too little time to be timed on
+ * its own, so scores are the average time of an event.
+ * <p>
+ * replay replays every event of the trace in order, and seek only its seeks, pauses and resumes. As each of those
+ * invalidates the timeline, the caption updates between them make no difference to their cost. Caption updates cannot
+ * be replayed without the seeks between them, so their time is that of replay for a trace of few seeks. allocations
+ * replays every event, counting the bytes allocated by caption updates and by seeks, pauses and resumes separately:
+ * divide tickBytes by ticks, and seekBytes by seeks, for the allocation of each kind of event. Its score includes the
+ * cost of counting and should be ignored.
+ * <p>
+ * A recorded trace may be replayed with e.g. -p trace=/path/to/trace.txt.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TraceReplayBenchmark {
+
+    private static final int EVENTS = 1000;
+
+    /** Replays the trace in order, wrapping around at its end */
+    @State(Scope.Thread)
+    public static class Replay {
+
+        @Param({ "1000", "10000", "100000" })
+        public int cues;
+
+        @Param({ SeekTrace.SCRUB, SeekTrace.SKIP, SeekTrace.PAUSE_RESUME })
+        public String trace;
+
+        final ManualPlaybackClock clock = new ManualPlaybackClock();
+        CaptionTimeline timeline;
+        SeekTrace events;
+        int duration;
+        private int cursor;
+        private long changes;
+
+        @Setup(Level.Trial)
+        public void setUpTrial() throws IOException {
+            CaptionTrack track = SyntheticCaptions.track(cues);
+            duration = track.getEnd(track.size() - 1);
+            events = SeekTrace.create(trace, duration);
+            timeline = new CaptionTimeline(4, new CaptionTimeline.Listener() {
+                @Override
+                public void onShow(int region, int index) {
+                    changes++;
+                }
+
+                @Override
+                public void onUpdate(int region, int index) {
+                    changes++;
+                }
+
+                @Override
+                public void onHide(int region) {
+                    changes++;
+                }
+            });
+            timeline.setTrack(track);
+            clock.setPlaying(true);
+            prepare();
+        }
+
+        /** Called at the end of the trial setup, once the timeline is ready to replay the trace */
+        void prepare() {
+        }
+
+        /** @return the kind of the event replayed next */
+        int nextKind() {
+            return events.getKind(cursor);
+        }
+
+        /** Replays the next event, and returns the time of the next caption update to keep the result live */
+        int replayNext() {
+            int kind = events.getKind(cursor);
+            int value = events.getValue(cursor);
+            cursor = (cursor + 1) % events.size();
+
+            switch (kind) {
+                case SeekTrace.TICK:
+                    if (clock.isPlaying()) {
+                        clock.setPosition(Math.min(clock.getPosition() + value, duration));
+                    }
+                    timeline.tick(clock.getPosition());
+                    break;
+                case SeekTrace.SEEK:
+                    clock.setPosition(Math.min(value, duration));
+                    playbackChanged();
+                    break;
+                case SeekTrace.PAUSE:
+                    clock.setPlaying(false);
+                    playbackChanged();
+                    break;
+                case SeekTrace.RESUME:
+                    clock.setPlaying(true);
+                    playbackChanged();
+                    break;
+            }
+            return timeline.getNextChange();
+        }
+
+        void playbackChanged() {
+            timeline.invalidate();
+            timeline.tick(clock.getPosition());
+        }
+    }
+
+    /** Replays the seeks, pauses and resumes of the trace at the positions they are made at in the full trace */
+    @State(Scope.Thread)
+    public static class SeekReplay extends Replay {
+
+        private int[] positions;
+        private int next;
+
+        @Override
+        void prepare() {
+            int count = 0;
+            for (int i = 0; i < events.size(); i++) {
+                if (events.getKind(i) != SeekTrace.TICK) {
+                    count++;
+                }
+            }
+            if (count == 0) {
+                throw new IllegalArgumentException("The trace has no seeks, pauses or resumes");
+            }
+
+            positions = new int[count];
+            count = 0;
+            for (int i = 0; i < events.size(); i++) {
+                int kind = nextKind();
+                super.replayNext();
+                if (kind != SeekTrace.TICK) {
+                    positions[count++] = clock.getPosition();
+                }
+            }
+        }
+
+        @Override
+        int replayNext() {
+            clock.setPosition(positions[next]);
+            next = (next + 1) % positions.length;
+            playbackChanged();
+            return timeline.getNextChange();
+        }
+    }
+
+    /**
+     * Counts the bytes allocated by the events replayed through it, by reading the allocation counter of the thread
+     * before and after each event
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Allocations {
+
+        private final ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        private long threadId;
+        /** The bytes allocated by reading the counter itself, subtracted from each count */
+        private long overhead;
+        public long tickBytes;
+        public long ticks;
+        public long seekBytes;
+        public long seeks;
+
+        @Setup(Level.Trial)
+        public void setUpTrial() {
+            if (!threads.isThreadAllocatedMemorySupported()) {
+                throw new UnsupportedOperationException("The JVM does not count the memory allocated by threads");
+            }
+            threads.setThreadAllocatedMemoryEnabled(true);
+            threadId = Thread.currentThread().getId();
+            overhead = Long.MAX_VALUE;
+            for (int i = 0; i < 100; i++) {
+                long before = threads.getThreadAllocatedBytes(threadId);
+                overhead = Math.min(overhead, threads.getThreadAllocatedBytes(threadId) - before);
+            }
+        }
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            tickBytes = 0;
+            ticks = 0;
+            seekBytes = 0;
+            seeks = 0;
+        }
+
+        int replayNext(Replay replay) {
+            boolean tick = replay.nextKind() == SeekTrace.TICK;
+            long before = threads.getThreadAllocatedBytes(threadId);
+            int result = replay.replayNext();
+            long allocated = threads.getThreadAllocatedBytes(threadId) - before - overhead;
+            if (tick) {
+                tickBytes += allocated;
+                ticks++;
+            } else {
+                seekBytes += allocated;
+                seeks++;
+            }
+            return result;
+        }
+    }
+
+    /** Caption updates, seeks, pauses and resumes in the proportions of the trace */
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public int replay(Replay replay) {
+        int result = 0;
+        for (int i = 0; i < EVENTS; i++) {
+            result += replay.replayNext();
+        }
+        return result;
+    }
+
+    /** A seek, pause or resume, followed by the caption update it triggers */
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public int seek(SeekReplay replay) {
+        int result = 0;
+        for (int i = 0; i < EVENTS; i++) {
+            result += replay.replayNext();
+        }
+        return result;
+    }
+
+    /** The events of replay, counting the bytes allocated by each kind of event */
+    @Benchmark
+    @OperationsPerInvocation(EVENTS)
+    public int allocations(Replay replay, Allocations allocations) {
+        int result = 0;
+        for (int i = 0; i < EVENTS; i++) {
+            result += allocations.replayNext(replay);
+        }
+        return result;
+    }
+}
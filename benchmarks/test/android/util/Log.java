@@ -0,0 +1,60 @@
+package android.util;
+
+/**
+ * Replaces the Log of the Android stub jar, whose methods throw, so that the tests can exercise code which logs
+ * warnings. Messages are written to the standard error stream.
+ */
+public final class Log {
+
+    private Log() {
+    }
+
+    public static int v(String tag, String msg) {
+        return println("V", tag, msg, null);
+    }
+
+    public static int v(String tag, String msg, Throwable tr) {
+        return println("V", tag, msg, tr);
+    }
+
+    public static int d(String tag, String msg) {
+        return println("D", tag, msg, null);
+    }
+
+    public static int d(String tag, String msg, Throwable tr) {
+        return println("D", tag, msg, tr);
+    }
+
+    public static int i(String tag, String msg) {
+        return println("I", tag, msg, null);
+    }
+
+    public static int i(String tag, String msg, Throwable tr) {
+        return println("I", tag, msg, tr);
+    }
+
+    public static int w(String tag, String msg) {
+        return println("W", tag, msg, null);
+    }
+
+    public static int w(String tag, String msg, Throwable tr) {
+        return println("W", tag, msg, tr);
+    }
+
+    public static int w(String tag, Throwable tr) {
+        return println("W", tag, null, tr);
+    }
+
+    public static int e(String tag, String msg) {
+        return println("E", tag, msg, null);
+    }
+
+    public static int e(String tag, String msg, Throwable tr) {
+        return println("E", tag, msg, tr);
+    }
+
+    private static int println(String level, String tag, String msg, Throwable tr) {
+        System.err.println(level + "/" + tag + ": " + msg + (tr != null ? " " + tr : ""));
+        return 0;
+    }
+}
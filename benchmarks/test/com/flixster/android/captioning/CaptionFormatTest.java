@@ -0,0 +1,69 @@
+package com.flixster.android.captioning;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.Test;
+
+public class CaptionFormatTest {
+
+    @Test
+    public void detectsTtml() throws IOException {
+        assertEquals(CaptionFormat.TTML, detect("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<tt>"));
+        assertEquals(CaptionFormat.TTML, detect("<tt xmlns=\"http://www.w3.org/ns/ttml\">"));
+    }
+
+    @Test
+    public void detectsWebVtt() throws IOException {
+        assertEquals(CaptionFormat.WEBVTT, detect("WEBVTT\n\n00:00:01.000 --> 00:00:02.000\nHello\n"));
+        assertEquals(CaptionFormat.WEBVTT, detect("WEBVTT - Title\n"));
+        assertEquals(CaptionFormat.WEBVTT, detect("\uFEFFWEBVTT\n"));
+    }
+
+    @Test
+    public void detectsSrt() throws IOException {
+        assertEquals(CaptionFormat.SRT, detect("1\r\n00:00:01,000 --> 00:00:02,000\r\nHello\r\n"));
+        assertEquals(CaptionFormat.SRT, detect("\uFEFF1\n00:00:01,000 --> 00:00:02,000\n"));
+        assertEquals(CaptionFormat.SRT, detect("\r\n\r\n  12\n"));
+    }
+
+    @Test
+    public void defaultsToTtml() throws IOException {
+        assertEquals(CaptionFormat.TTML, detect(""));
+        assertEquals(CaptionFormat.TTML, detect("  \n"));
+        assertEquals(CaptionFormat.TTML, detect("WEBVT"));
+        assertEquals(CaptionFormat.TTML, detect("webvtt\n"));
+        assertEquals(CaptionFormat.TTML, detect("Subtitles"));
+    }
+
+    @Test
+    public void resetsStream() throws IOException {
+        StringBuilder document = new StringBuilder("WEBVTT\n\n");
+        for (int i = 0; i < 10; i++) {
+            document.append("00:00:0").append(i).append(".000 --> 00:00:0").append(i).append(".500\nLine\n\n");
+        }
+        InputStream is = new BufferedInputStream(new ByteArrayInputStream(document.toString().getBytes("UTF-8")));
+
+        CaptionFormat format = CaptionFormat.detect(is);
+
+        assertEquals(CaptionFormat.WEBVTT, format);
+        assertEquals('W', is.read());
+        assertEquals(10, WebVttCaptionParserTest.parse(document.toString()).size());
+    }
+
+    @Test
+    public void createsParserOfFormat() {
+        assertTrue(CaptionFormat.TTML.newParser() instanceof CaptionsXmlParser);
+        assertTrue(CaptionFormat.WEBVTT.newParser() instanceof WebVttCaptionParser);
+        assertTrue(CaptionFormat.SRT.newParser() instanceof SrtCaptionParser);
+    }
+
+    private static CaptionFormat detect(String head) throws IOException {
+        return CaptionFormat.detect(new BufferedInputStream(new ByteArrayInputStream(head.getBytes("UTF-8"))));
+    }
+}
@@ -0,0 +1,157 @@
+package com.flixster.android.captioning;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class CaptionTimelineTest {
+
+    private final List<String> events = new ArrayList<String>();
+    private CaptionTrack track;
+    private CaptionTimeline timeline;
+
+    @Before
+    public void setUp() {
+        track = new CaptionTrack();
+        track.add(1000, 2000, 0, 15, 80, "a"); // 0
+        track.add(2000, 3000, 0, 15, 80, "b"); // 1
+        track.add(2500, 3500, 1, 15, 10, "top"); // 2
+        track.add(5000, 6000, 0, 15, 80, "c"); // 3
+        timeline = new CaptionTimeline(2, new CaptionTimeline.Listener() {
+            @Override
+            public void onShow(int region, int index) {
+                events.add("show " + region + " " + index);
+            }
+
+            @Override
+            public void onUpdate(int region, int index) {
+                events.add("update " + region + " " + index);
+            }
+
+            @Override
+            public void onHide(int region) {
+                events.add("hide " + region);
+            }
+        });
+        timeline.setTrack(track);
+    }
+
+    @Test
+    public void reportsShowUpdateAndHide() {
+        assertEvents(0);
+        assertEquals(1000, timeline.getNextChange());
+        assertEvents(1000, "show 0 0");
+        assertEvents(1999);
+        assertEvents(2000, "update 0 1");
+        assertEquals(2500, timeline.getNextChange());
+        assertEvents(2500, "show 1 2");
+        assertEvents(3000, "hide 0");
+        assertEvents(3500, "hide 1");
+        assertEquals(5000, timeline.getNextChange());
+        assertEvents(5000, "show 0 3");
+        assertEvents(6000, "hide 0");
+        assertEquals(-1, timeline.getNextChange());
+        assertEquals(-1, timeline.getShownIndex(0));
+    }
+
+    @Test
+    public void skipsLookupsBetweenChanges() {
+        timeline.tick(1000);
+        events.clear();
+        for (int position = 1000; position < 2000; position += 16) {
+            assertEvents(position);
+        }
+        assertEquals(0, timeline.getShownIndex(0));
+    }
+
+    @Test
+    public void seeksForwards() {
+        assertEvents(1500, "show 0 0");
+        assertEvents(2700, "update 0 1", "show 1 2");
+        assertEvents(5500, "update 0 3", "hide 1");
+        assertEquals(6000, timeline.getNextChange());
+    }
+
+    @Test
+    public void seeksBackwards() {
+        assertEvents(5500, "show 0 3");
+        assertEvents(2600, "update 0 1", "show 1 2");
+        assertEvents(1500, "update 0 0", "hide 1");
+        assertEquals(2000, timeline.getNextChange());
+        assertEvents(500, "hide 0");
+        assertEquals(1000, timeline.getNextChange());
+    }
+
+    @Test
+    public void seekWithinShownCaptionReportsNothing() {
+        assertEvents(2900, "show 0 1", "show 1 2");
+        assertEvents(2600);
+        assertEquals(1, timeline.getShownIndex(0));
+        assertEquals(2, timeline.getShownIndex(1));
+    }
+
+    @Test
+    public void showsLatestOfOverlappingCaptions() {
+        track = new CaptionTrack();
+        track.add(1000, 5000, 0, 15, 80, "long"); // 0
+        track.add(2000, 3000, 0, 15, 80, "inner"); // 1
+        track.add(2500, 4000, 0, 15, 80, "overlap"); // 2
+        timeline.setTrack(track);
+
+        assertEvents(1000, "show 0 0");
+        assertEvents(2000, "update 0 1");
+        assertEvents(2500, "update 0 2");
+        assertEvents(3000);
+        assertEquals(4000, timeline.getNextChange());
+        assertEvents(4000, "update 0 0");
+        assertEvents(5000, "hide 0");
+        assertEvents(2700, "show 0 2");
+    }
+
+    @Test
+    public void ignoresRegionsBeyondCount() {
+        track.add(7000, 8000, 5, 15, 80, "elsewhere");
+        assertEvents(7500);
+        assertEquals(8000, timeline.getNextChange());
+    }
+
+    @Test
+    public void invalidateAndResetLookUpAgain() {
+        assertEvents(1500, "show 0 0");
+        timeline.invalidate();
+        assertEvents(1500);
+
+        timeline.reset();
+        assertEquals(-1, timeline.getShownIndex(0));
+        assertEvents(1500, "show 0 0");
+
+        timeline.setTrack(null);
+        assertEvents(1500, "hide 0");
+        assertEquals(-1, timeline.getNextChange());
+    }
+
+    @Test
+    public void showsCaptionsAppendedToTrack() {
+        CaptionTrack streamed = new CaptionTrack();
+        streamed.add(1000, 2000, 0, 15, 80, "a");
+        timeline.setTrack(streamed);
+        assertEvents(2500);
+        assertEquals(-1, timeline.getNextChange());
+
+        streamed.add(2000, 3000, 0, 15, 80, "b");
+        timeline.invalidate();
+        assertEvents(2500, "show 0 1");
+    }
+
+    /** Ticks the timeline to the position, and checks the changes it reported */
+    private void assertEvents(int position, String... expected) {
+        events.clear();
+        timeline.tick(position);
+        assertEquals("At " + position, Arrays.asList(expected), events);
+    }
+}
@@ -0,0 +1,153 @@
+package com.flixster.android.captioning;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class CaptionTrackTest {
+
+    private CaptionTrack track;
+
+    @Before
+    public void setUp() {
+        track = new CaptionTrack();
+        track.add(1000, 2000, 0, 15, 80, "a"); // 0
+        track.add(1000, 9000, 1, 15, 10, "long"); // 1, spans those after it
+        track.add(3000, 4000, 0, 15, 80, "b"); // 2
+        track.add(3500, 5000, 0, 15, 80, "c"); // 3
+        track.add(7000, 8000, 0, 15, 80, "a"); // 4
+    }
+
+    @Test
+    public void findsActiveCaptions() {
+        assertActive(999);
+        assertActive(1000, 0, 1);
+        assertActive(1999, 0, 1);
+        assertActive(2000, 1);
+        assertActive(3700, 1, 2, 3);
+        assertActive(4000, 1, 3);
+        assertActive(7500, 1, 4);
+        assertActive(8999, 1);
+        assertActive(9000);
+        assertActive(Integer.MAX_VALUE);
+    }
+
+    @Test
+    public void countsActiveCaptionsBeyondIndices() {
+        int[] indices = new int[2];
+        assertEquals(3, track.findActive(3700, indices));
+        assertArrayEquals(new int[] { 1, 2 }, indices);
+        assertEquals(3, track.findActive(3700, new int[0]));
+    }
+
+    @Test
+    public void findsNextCaptions() {
+        assertNext(0, 5, 0, 1, 2, 3, 4);
+        assertNext(999, 2, 0, 1);
+        assertNext(1000, 5, 2, 3, 4);
+        assertNext(3500, 5, 4);
+        assertNext(7000, 5);
+    }
+
+    @Test
+    public void findsNextBoundary() {
+        assertEquals(1000, track.nextBoundary(0));
+        assertEquals(2000, track.nextBoundary(1000));
+        assertEquals(3000, track.nextBoundary(2000));
+        assertEquals(3500, track.nextBoundary(3000));
+        assertEquals(4000, track.nextBoundary(3500));
+        assertEquals(5000, track.nextBoundary(4000));
+        assertEquals(7000, track.nextBoundary(5000));
+        assertEquals(8000, track.nextBoundary(7000));
+        assertEquals(9000, track.nextBoundary(8000));
+        assertEquals(-1, track.nextBoundary(9000));
+    }
+
+    @Test
+    public void handlesEmptyTrack() {
+        CaptionTrack empty = new CaptionTrack();
+        assertEquals(0, empty.findActive(1000, new int[4]));
+        assertEquals(0, empty.findNext(1000, new int[4]));
+        assertEquals(-1, empty.nextBoundary(1000));
+    }
+
+    @Test
+    public void indexesCaptionsAppendedAfterLookup() {
+        assertActive(9500);
+        assertEquals(-1, track.nextBoundary(9000));
+
+        track.add(9200, 9800, 0, 15, 80, "d"); // 5
+        assertActive(9500, 5);
+        assertEquals(9200, track.nextBoundary(9000));
+        assertNext(9000, 5, 5);
+    }
+
+    @Test
+    public void rebuildsIndexForCaptionsAppendedOutOfOrder() {
+        assertActive(500);
+
+        track.add(200, 600, 0, 15, 80, "early"); // 5
+        assertActive(500, 5);
+        assertActive(3700, 1, 2, 3);
+        assertNext(0, 3, 5, 0, 1);
+        assertEquals(200, track.nextBoundary(0));
+        assertEquals(600, track.nextBoundary(200));
+        assertEquals(1000, track.nextBoundary(600));
+
+        // The index is rebuilt again after a further append
+        track.add(3600, 3700, 0, 15, 80, "late"); // 6
+        assertActive(3650, 1, 2, 3, 6);
+        assertEquals(3700, track.nextBoundary(3650));
+        assertNext(3500, 5, 6, 4);
+    }
+
+    @Test
+    public void sharesRepeatedTexts() {
+        assertEquals(4, track.getTextPoolSize());
+        assertEquals(track.getTextId(0), track.getTextId(4));
+        assertSame(track.getText(0), track.getText(4));
+
+        track.complete();
+        track.add(9000, 9500, 0, 15, 80, "b");
+        track.add(9500, 9900, 0, 15, 80, null);
+        assertEquals(track.getTextId(2), track.getTextId(5));
+        assertNull(track.getText(6));
+        assertEquals(5, track.getTextPoolSize());
+    }
+
+    @Test
+    public void createsTimedTextElements() {
+        TimedTextElement caption = track.get(1);
+        assertEquals(1000, caption.begin);
+        assertEquals(9000, caption.end);
+        assertEquals(1, caption.region);
+        assertEquals(15, caption.originX);
+        assertEquals(10, caption.originY);
+        assertEquals("long", caption.text);
+        assertEquals(5, track.asList().size());
+        assertEquals("c", track.asList().get(3).text);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void rejectsIndexBeyondSize() {
+        track.getBegin(5);
+    }
+
+    private void assertActive(int time, int... expected) {
+        int[] indices = new int[8];
+        int count = track.findActive(time, indices);
+        assertArrayEquals("at " + time, expected, Arrays.copyOf(indices, count));
+    }
+
+    private void assertNext(int time, int length, int... expected) {
+        int[] indices = new int[length];
+        int count = track.findNext(time, indices);
+        assertArrayEquals("after " + time, expected, Arrays.copyOf(indices, count));
+    }
+}
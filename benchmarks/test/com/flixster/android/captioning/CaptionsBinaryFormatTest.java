@@ -0,0 +1,147 @@
+package com.flixster.android.captioning;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CaptionsBinaryFormatTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File source;
+    private File compiled;
+
+    @Before
+    public void setUp() throws IOException {
+        source = folder.newFile("captions" + TimedTextElement.LOCAL_FILE_EXTENSION);
+        writeSource("<tt/>");
+        compiled = CaptionsBinaryFormat.compiledFileFor(source);
+    }
+
+    @Test
+    public void compiledFileReplacesSourceExtension() {
+        assertEquals(new File(folder.getRoot(), "captions" + CaptionsBinaryFormat.COMPILED_FILE_EXTENSION), compiled);
+        assertNull(CaptionsBinaryFormat.compiledFileFor(new File(folder.getRoot(), "captions.vtt")));
+    }
+
+    @Test
+    public void roundTripsCaptions() {
+        CaptionTrack track = new CaptionTrack();
+        track.add(1000, 2000, 0, 15, 80, "Hello");
+        track.add(1000, 2000, 1, 15, 10, "caf\u00e9\nna\u00efve");
+        track.add(2500, 3000, 0, 20, 70, null);
+        track.add(3000, 4000, 0, 15, 80, "");
+        track.add(4000, 5000, 0, 15, 80, "Hello");
+        track.complete();
+
+        CaptionTrack read = writeAndRead(track);
+
+        assertEquals(track.size(), read.size());
+        for (int i = 0; i < track.size(); i++) {
+            assertEquals(track.getBegin(i), read.getBegin(i));
+            assertEquals(track.getEnd(i), read.getEnd(i));
+            assertEquals(track.getRegion(i), read.getRegion(i));
+            assertEquals(track.getOriginX(i), read.getOriginX(i));
+            assertEquals(track.getOriginY(i), read.getOriginY(i));
+            assertEquals(track.getText(i), read.getText(i));
+        }
+        assertNull(read.getText(2));
+        assertEquals("", read.getText(3));
+    }
+
+    @Test
+    public void storesRepeatedTextsOnce() {
+        CaptionTrack track = new CaptionTrack();
+        for (int i = 0; i < 100; i++) {
+            track.add(i * 1000, i * 1000 + 500, 0, 15, 80, i % 2 == 0 ? "A repeated line of dialogue" : "Another");
+        }
+        track.complete();
+
+        CaptionTrack read = writeAndRead(track);
+
+        assertEquals(2, read.getTextPoolSize());
+        assertEquals(read.getTextId(0), read.getTextId(2));
+        assertSame(read.getText(0), read.getText(98));
+        // Header, six ints per caption, three text offsets and the two texts
+        assertEquals(36 + 6 * 4 * 100 + 3 * 4 + "A repeated line of dialogue".length() + "Another".length(),
+                compiled.length());
+    }
+
+    @Test
+    public void roundTripsEmptyTrack() {
+        CaptionTrack track = new CaptionTrack();
+        track.complete();
+
+        assertEquals(0, writeAndRead(track).size());
+    }
+
+    @Test
+    public void ignoresMissingFile() {
+        assertNull(CaptionsBinaryFormat.read(compiled, source));
+    }
+
+    @Test
+    public void ignoresFileOfModifiedSource() throws IOException {
+        assertTrue(CaptionsBinaryFormat.write(compiled, source, singleCaptionTrack()));
+
+        writeSource("<tt></tt>");
+        assertNull(CaptionsBinaryFormat.read(compiled, source));
+    }
+
+    @Test
+    public void ignoresFileOfTouchedSource() {
+        assertTrue(CaptionsBinaryFormat.write(compiled, source, singleCaptionTrack()));
+
+        assertTrue(source.setLastModified(source.lastModified() - 60000));
+        assertNull(CaptionsBinaryFormat.read(compiled, source));
+    }
+
+    @Test
+    public void ignoresTruncatedFile() throws IOException {
+        assertTrue(CaptionsBinaryFormat.write(compiled, source, singleCaptionTrack()));
+
+        RandomAccessFile file = new RandomAccessFile(compiled, "rw");
+        try {
+            file.setLength(file.length() - 1);
+        } finally {
+            file.close();
+        }
+        assertNull(CaptionsBinaryFormat.read(compiled, source));
+    }
+
+    private CaptionTrack writeAndRead(CaptionTrack track) {
+        assertTrue(CaptionsBinaryFormat.write(compiled, source, track));
+        CaptionTrack read = CaptionsBinaryFormat.read(compiled, source);
+        assertNotNull(read);
+        return read;
+    }
+
+    private static CaptionTrack singleCaptionTrack() {
+        CaptionTrack track = new CaptionTrack();
+        track.add(1000, 2000, 0, 15, 80, "Hello");
+        track.complete();
+        return track;
+    }
+
+    private void writeSource(String content) throws IOException {
+        FileOutputStream out = new FileOutputStream(source);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.flixster.android.captioning;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.List;
+
+import org.junit.Test;
+
+public class CaptionsXmlParserTest {
+
+    private static final String HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<tt xmlns=\"http://www.w3.org/ns/ttml\" xmlns:tts=\"http://www.w3.org/ns/ttml#styling\"><body><div>\n";
+    private static final String FOOTER = "\n</div></body></tt>";
+
+    @Test
+    public void joinsNestedSpans() {
+        assertEquals("Hello big world", parseText("<span>Hello</span> <span>big <span>world</span></span>"));
+        assertEquals("Hello", parseText("<span>Hel</span><span>lo</span>"));
+        assertEquals("Hello world", parseText("<span>Hello </span><span> world</span>"));
+    }
+
+    @Test
+    public void collapsesWhitespace() {
+        assertEquals("a b", parseText("  a \n\t  b  "));
+        assertEquals("one\ntwo", parseText(" one <br/>\n   two "));
+    }
+
+    @Test
+    public void dropsLineBreaksOutsideOfText() {
+        assertEquals("text", parseText("<br/>text"));
+        assertEquals("text", parseText("<br/> <br/><span>text</span>"));
+        assertEquals("one\ntwo", parseText("one<br/>two<br/>"));
+        assertNull(parseText("<br/>"));
+        assertNull(parseText(""));
+    }
+
+    @Test
+    public void ignoresTextOutsideOfParagraphs() {
+        List<TimedTextElement> captions = parse("outside<p begin=\"1s\" end=\"2s\">inside</p>after"
+                + "<div>nested <p begin=\"3s\" end=\"4s\">second</p></div>");
+        assertEquals(2, captions.size());
+        assertEquals("inside", captions.get(0).text);
+        assertEquals("second", captions.get(1).text);
+    }
+
+    @Test
+    public void readsTimingRegionsAndOrigin() {
+        List<TimedTextElement> captions = parse("<p begin=\"00:00:01.000\" end=\"00:00:02.500\">a</p>"
+                + "<p begin=\"00:00:01.000\" end=\"00:00:02.000\" tts:origin=\"10% 20%\">b</p>"
+                + "<p begin=\"3s\" end=\"4s\">c</p>");
+        assertEquals(3, captions.size());
+        assertEquals(1000, captions.get(0).begin);
+        assertEquals(2500, captions.get(0).end);
+        assertEquals(0, captions.get(0).region);
+        assertEquals(1, captions.get(1).region);
+        assertEquals(10, captions.get(1).originX);
+        assertEquals(20, captions.get(1).originY);
+        assertEquals(0, captions.get(2).region);
+        assertEquals(3000, captions.get(2).begin);
+    }
+
+    private static String parseText(String paragraph) {
+        List<TimedTextElement> captions = parse("<p begin=\"1s\" end=\"2s\">" + paragraph + "</p>");
+        assertEquals(1, captions.size());
+        return captions.get(0).text;
+    }
+
+    private static List<TimedTextElement> parse(String body) {
+        CaptionsXmlParser parser = new CaptionsXmlParser();
+        List<TimedTextElement> captions;
+        try {
+            captions = parser.parse(new ByteArrayInputStream((HEADER + body + FOOTER).getBytes("UTF-8")));
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+        assertNotNull(captions);
+        assertTrue(parser.isComplete());
+        return captions;
+    }
+}
@@ -0,0 +1,135 @@
+package com.flixster.android.captioning;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ExtrapolatedPlaybackClockTest {
+
+    private static final int SAMPLE_INTERVAL_MS = 500;
+    private static final long MILLIS = 1000000L;
+
+    private FakePlayerClock clock;
+
+    @Before
+    public void setUp() {
+        clock = new FakePlayerClock();
+        clock.playerPosition = 10000;
+        clock.playerPlaying = true;
+        clock.nanos = 1000 * MILLIS;
+    }
+
+    @Test
+    public void extrapolatesBetweenSamples() {
+        assertEquals(10000, clock.getPosition());
+        assertEquals(1, clock.getSampleCount());
+
+        // The player is not read again within the sample interval
+        clock.playerPosition = 99999;
+        clock.nanos += 200 * MILLIS;
+        assertEquals(10200, clock.getPosition());
+        clock.nanos += 299 * MILLIS;
+        assertEquals(10499, clock.getPosition());
+        assertTrue(clock.isPlaying());
+        assertEquals(1, clock.getSampleCount());
+    }
+
+    @Test
+    public void resamplesAfterInterval() {
+        clock.getPosition();
+        clock.playerPosition = 10400;
+        clock.nanos += SAMPLE_INTERVAL_MS * MILLIS;
+        assertEquals(10400, clock.getPosition());
+        assertEquals(2, clock.getSampleCount());
+
+        clock.nanos += 100 * MILLIS;
+        assertEquals(10500, clock.getPosition());
+        assertEquals(2, clock.getSampleCount());
+    }
+
+    @Test
+    public void syncResamplesOnNextRead() {
+        clock.getPosition();
+        clock.nanos += 100 * MILLIS;
+        clock.playerPosition = 60000;
+        assertEquals(10100, clock.getPosition());
+
+        clock.sync();
+        assertEquals(1, clock.getSampleCount());
+        assertEquals(60000, clock.getPosition());
+        assertEquals(2, clock.getSampleCount());
+        clock.nanos += 50 * MILLIS;
+        assertEquals(60050, clock.getPosition());
+    }
+
+    @Test
+    public void holdsPositionWhilePaused() {
+        clock.playerPlaying = false;
+        assertEquals(10000, clock.getPosition());
+        assertFalse(clock.isPlaying());
+
+        clock.nanos += 400 * MILLIS;
+        assertEquals(10000, clock.getPosition());
+        clock.nanos += 400 * MILLIS;
+        assertEquals(10000, clock.getPosition());
+        assertEquals(2, clock.getSampleCount());
+    }
+
+    @Test
+    public void pauseAndResumeTakeEffectAfterSync() {
+        clock.getPosition();
+        clock.nanos += 300 * MILLIS;
+        clock.playerPosition = 10300;
+        clock.playerPlaying = false;
+        clock.sync();
+        assertEquals(10300, clock.getPosition());
+        assertFalse(clock.isPlaying());
+
+        clock.nanos += 1000 * MILLIS;
+        assertEquals(10300, clock.getPosition());
+
+        clock.playerPlaying = true;
+        clock.sync();
+        assertTrue(clock.isPlaying());
+        clock.nanos += 100 * MILLIS;
+        assertEquals(10400, clock.getPosition());
+    }
+
+    @Test
+    public void extrapolatesAtPlaybackRate() {
+        clock.setPlaybackRate(2.0f);
+        clock.getPosition();
+        clock.nanos += 100 * MILLIS;
+        assertEquals(10200, clock.getPosition());
+        assertEquals(2.0f, clock.getPlaybackRate(), 0);
+    }
+
+    /** A clock reading a player whose state, and the monotonic time, are set by the test */
+    private static class FakePlayerClock extends ExtrapolatedPlaybackClock {
+        int playerPosition;
+        boolean playerPlaying;
+        long nanos;
+
+        FakePlayerClock() {
+            super(SAMPLE_INTERVAL_MS);
+        }
+
+        @Override
+        protected int readPosition() {
+            return playerPosition;
+        }
+
+        @Override
+        protected boolean readPlaying() {
+            return playerPlaying;
+        }
+
+        @Override
+        protected long nanoTime() {
+            return nanos;
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.flixster.android.captioning;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ManualPlaybackClockTest {
+
+    @Test
+    public void positionOnlyChangesWhenSet() {
+        ManualPlaybackClock clock = new ManualPlaybackClock();
+        assertEquals(0, clock.getPosition());
+        assertFalse(clock.isPlaying());
+
+        clock.setPlaying(true);
+        clock.setPosition(5000);
+        clock.sync();
+        assertEquals(5000, clock.getPosition());
+        assertTrue(clock.isPlaying());
+
+        clock.advance(250);
+        assertEquals(5250, clock.getPosition());
+        clock.advance(-1000);
+        assertEquals(4250, clock.getPosition());
+    }
+
+    @Test
+    public void pauseHoldsPosition() {
+        ManualPlaybackClock clock = new ManualPlaybackClock();
+        clock.setPosition(1000);
+        clock.setPlaying(true);
+        clock.setPlaying(false);
+        clock.sync();
+        assertFalse(clock.isPlaying());
+        assertEquals(1000, clock.getPosition());
+    }
+}
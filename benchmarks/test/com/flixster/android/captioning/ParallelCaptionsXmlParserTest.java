@@ -0,0 +1,102 @@
+package com.flixster.android.captioning;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class ParallelCaptionsXmlParserTest {
+
+    /** Enough cues for the generated document to be split into several chunks */
+    private static final int CUES = 20000;
+    private static final int BATCH_SIZE = 100;
+
+    @Test
+    public void parsesSameCaptionsAsSequentialParser() {
+        byte[] document = SyntheticCaptions.generate(CaptionFormat.TTML, CUES, 2);
+        assertTrue(document.length > 4 * ParallelCaptionsXmlParser.MIN_CHUNK_LENGTH);
+
+        CaptionsXmlParser sequential = new CaptionsXmlParser();
+        List<TimedTextElement> expected = parse(sequential, document);
+        ParallelCaptionsXmlParser parallel = new ParallelCaptionsXmlParser(4);
+        List<TimedTextElement> actual = parse(parallel, document);
+
+        assertTrue(sequential.isComplete());
+        assertTrue(parallel.isComplete());
+        assertEquals(CUES, expected.size());
+        assertCaptionsEqual(expected, actual);
+    }
+
+    @Test
+    public void skipsByteOrderMark() {
+        byte[] document = SyntheticCaptions.generate(CaptionFormat.TTML, CUES, 1);
+        byte[] withBom = new byte[document.length + 3];
+        withBom[0] = (byte) 0xEF;
+        withBom[1] = (byte) 0xBB;
+        withBom[2] = (byte) 0xBF;
+        System.arraycopy(document, 0, withBom, 3, document.length);
+
+        List<TimedTextElement> expected = parse(new CaptionsXmlParser(), document);
+        ParallelCaptionsXmlParser parallel = new ParallelCaptionsXmlParser(4);
+        assertCaptionsEqual(expected, parse(parallel, withBom));
+        assertTrue(parallel.isComplete());
+    }
+
+    @Test
+    public void stopsAtFirstErrorLikeSequentialParser() {
+        byte[] document = SyntheticCaptions.generate(CaptionFormat.TTML, CUES, 1);
+        // Truncates the document within the last chunk, in the middle of a p element
+        byte[] truncated = Arrays.copyOf(document, document.length - 1000);
+
+        CaptionsXmlParser sequential = new CaptionsXmlParser();
+        List<TimedTextElement> expected = parse(sequential, truncated);
+        ParallelCaptionsXmlParser parallel = new ParallelCaptionsXmlParser(4);
+        List<TimedTextElement> actual = parse(parallel, truncated);
+
+        assertFalse(sequential.isComplete());
+        assertFalse(parallel.isComplete());
+        assertTrue(expected.size() > 0);
+        assertCaptionsEqual(expected, actual);
+    }
+
+    @Test
+    public void parsesSmallDocumentSequentially() {
+        byte[] document = SyntheticCaptions.generate(CaptionFormat.TTML, 10, 1);
+        ParallelCaptionsXmlParser parallel = new ParallelCaptionsXmlParser(4);
+        assertCaptionsEqual(parse(new CaptionsXmlParser(), document), parse(parallel, document));
+        assertTrue(parallel.isComplete());
+    }
+
+    private static List<TimedTextElement> parse(CaptionFormatParser parser, byte[] document) {
+        final List<TimedTextElement> ttElements = new ArrayList<TimedTextElement>();
+        boolean parsed = parser.parse(new ByteArrayInputStream(document), new CaptionSink() {
+            @Override
+            public void onCaptions(List<TimedTextElement> batch) {
+                ttElements.addAll(batch);
+            }
+        }, BATCH_SIZE);
+        assertTrue(parsed);
+        return ttElements;
+    }
+
+    private static void assertCaptionsEqual(List<TimedTextElement> expected, List<TimedTextElement> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            TimedTextElement e = expected.get(i);
+            TimedTextElement a = actual.get(i);
+            String message = "Caption " + i;
+            assertEquals(message, e.begin, a.begin);
+            assertEquals(message, e.end, a.end);
+            assertEquals(message, e.region, a.region);
+            assertEquals(message, e.originX, a.originX);
+            assertEquals(message, e.originY, a.originY);
+            assertEquals(message, e.text, a.text);
+        }
+    }
+}
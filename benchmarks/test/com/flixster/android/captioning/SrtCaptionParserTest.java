@@ -0,0 +1,67 @@
+package com.flixster.android.captioning;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.List;
+
+import org.junit.Test;
+
+public class SrtCaptionParserTest {
+
+    @Test
+    public void parsesCuesWithWindowsLineEndings() {
+        List<TimedTextElement> captions = parse("1\r\n00:00:01,000 --> 00:00:02,500\r\nHello\r\nworld\r\n\r\n"
+                + "2\r\n01:02:03,040 --> 01:02:04,000\r\nSecond\r\n");
+
+        assertEquals(2, captions.size());
+        assertEquals(1000, captions.get(0).begin);
+        assertEquals(2500, captions.get(0).end);
+        assertEquals("Hello\nworld", captions.get(0).text);
+        assertEquals(3723040, captions.get(1).begin);
+        assertEquals(3724000, captions.get(1).end);
+        assertEquals("Second", captions.get(1).text);
+    }
+
+    @Test
+    public void skipsByteOrderMark() {
+        assertEquals("Hello", parse("\uFEFF1\n00:00:01,000 --> 00:00:02,000\nHello\n").get(0).text);
+        // Without a cue number, the mark is in front of the timing line
+        List<TimedTextElement> captions = parse("\uFEFF00:00:01,000 --> 00:00:02,000\nHello\n");
+        assertEquals(1, captions.size());
+        assertEquals(1000, captions.get(0).begin);
+    }
+
+    @Test
+    public void ignoresCueSettings() {
+        int[] defaultOrigin = TimedTextElement.parseOrigin(null);
+        TimedTextElement caption = parse("1\n00:00:01,000 --> 00:00:02,000  X1:100 X2:600 Y1:20 Y2:80\nHello\n")
+                .get(0);
+
+        assertEquals(2000, caption.end);
+        assertEquals(defaultOrigin[0], caption.originX);
+        assertEquals(defaultOrigin[1], caption.originY);
+    }
+
+    @Test
+    public void stripsTagsAndOverrideCodes() {
+        assertEquals("Top line", parseText("{\\an8}Top line"));
+        assertEquals("Bold italic", parseText("<b>Bold</b> {\\i1}<i>italic</i>{\\i0}"));
+        assertEquals("<3 & {braces}", parseText("<3 & {braces}"));
+        assertEquals("unclosed {\\an8", parseText("unclosed {\\an8"));
+    }
+
+    @Test
+    public void doesNotDecodeCharacterReferences() {
+        assertEquals("Tom &amp; Jerry", parseText("Tom &amp; Jerry"));
+    }
+
+    private static String parseText(String cueText) {
+        List<TimedTextElement> captions = parse("1\r\n00:00:01,000 --> 00:00:02,000\r\n" + cueText + "\r\n");
+        assertEquals(1, captions.size());
+        return captions.get(0).text;
+    }
+
+    private static List<TimedTextElement> parse(String document) {
+        return WebVttCaptionParserTest.parse(new SrtCaptionParser(), document);
+    }
+}
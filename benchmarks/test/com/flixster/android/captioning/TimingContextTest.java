@@ -0,0 +1,90 @@
+package com.flixster.android.captioning;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class TimingContextTest {
+
+    private static final TimingContext DEFAULT = TimingContext.DEFAULT;
+
+    @Test
+    public void parsesClockTimeWithFraction() {
+        assertEquals(1500, DEFAULT.toMillis("00:00:01.500"));
+        assertEquals(3723250, DEFAULT.toMillis("01:02:03.250"));
+        assertEquals(1500, DEFAULT.toMillis("00:00:01.5"));
+        assertEquals(700, DEFAULT.toMillis("00:00:00.7"));
+        assertEquals(3723000, DEFAULT.toMillis("1:2:3"));
+        assertEquals(1500, DEFAULT.toMillis(" 00:00:01.5 "));
+    }
+
+    @Test
+    public void parsesClockTimeWithFrames() {
+        assertEquals(1500, DEFAULT.toMillis("00:00:01:15"));
+        assertEquals(1500, DEFAULT.toMillis("0:0:1:15"));
+        TimingContext pal = TimingContext.create(null, "25", null, null);
+        assertEquals(400, pal.toMillis("00:00:00:10"));
+        TimingContext film = TimingContext.create(null, "24", null, null);
+        assertEquals(416, film.toMillis("00:00:00:10"));
+    }
+
+    @Test
+    public void parsesSubFramesAtSubFrameRate() {
+        TimingContext context = TimingContext.create(null, "30", null, "2", null);
+        assertEquals(1350, context.toMillis("00:00:01:10.1"));
+        assertEquals(1333, context.toMillis("00:00:01:10.0"));
+        assertEquals(1333, DEFAULT.toMillis("00:00:01:10.0"));
+    }
+
+    @Test
+    public void parsesOffsetTimes() {
+        assertEquals(7200000, DEFAULT.toMillis("2h"));
+        assertEquals(90000, DEFAULT.toMillis("1.5m"));
+        assertEquals(2250, DEFAULT.toMillis("2.25s"));
+        assertEquals(1500, DEFAULT.toMillis("1500ms"));
+        assertEquals(1500, DEFAULT.toMillis("45f"));
+        assertEquals(90000, DEFAULT.toMillis("90t"));
+    }
+
+    @Test
+    public void parsesTicksAtTickRate() {
+        assertEquals(500, TimingContext.create(null, null, null, "10000000").toMillis("5000000t"));
+        // Ticks default to sub-frames when a frame-rate is declared
+        assertEquals(1000, TimingContext.create(null, "30", null, "2", null).toMillis("60t"));
+        assertEquals(1001, TimingContext.create(null, "30", "1000 1001", "2", null).toMillis("60t"));
+        assertEquals(1000, TimingContext.create(null, "30", null, null, "bad").toMillis("30t"));
+    }
+
+    @Test
+    public void distinguishesDropFrameFromNonDropFrame() {
+        TimingContext drop = TimingContext.create("dropNTSC", "30", "1000 1001", null);
+        TimingContext nonDrop = TimingContext.create("nonDrop", "30", "1000 1001", null);
+        assertEquals(59999, drop.toMillis("00:01:00:00"));
+        assertEquals(60060, nonDrop.toMillis("00:01:00:00"));
+        assertEquals(500, drop.toMillis("00:00:00:15"));
+        assertEquals(500, nonDrop.toMillis("00:00:00:15"));
+    }
+
+    @Test
+    public void appliesFrameRateMultiplier() {
+        TimingContext ntsc = TimingContext.create(null, "30", "1000 1001", null);
+        assertEquals(1001, ntsc.toMillis("30f"));
+        assertEquals(1001, ntsc.toMillis("00:00:01:00"));
+        assertEquals(1000, DEFAULT.toMillis("30f"));
+    }
+
+    @Test
+    public void returnsZeroForMalformedExpressions() {
+        assertEquals(0, DEFAULT.toMillis(null));
+        assertEquals(0, DEFAULT.toMillis(""));
+        assertEquals(0, DEFAULT.toMillis("abc"));
+        assertEquals(0, DEFAULT.toMillis("1:2"));
+        assertEquals(0, DEFAULT.toMillis("00:00:01."));
+        assertEquals(0, DEFAULT.toMillis("00:00:01:"));
+        assertEquals(0, DEFAULT.toMillis("00:00:01:10."));
+        assertEquals(0, DEFAULT.toMillis("00:00:01.5x"));
+        assertEquals(0, DEFAULT.toMillis("10x"));
+        assertEquals(0, DEFAULT.toMillis("1.5"));
+        assertEquals(0, DEFAULT.toMillis("s"));
+    }
+}
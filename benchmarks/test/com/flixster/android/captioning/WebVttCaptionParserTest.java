@@ -0,0 +1,154 @@
+package com.flixster.android.captioning;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class WebVttCaptionParserTest {
+
+    @Test
+    public void parsesCues() {
+        List<TimedTextElement> captions = parse("WEBVTT\n\n"
+                + "1\n00:00:01.000 --> 00:00:02.500\nHello\nworld\n\n"
+                + "intro\n00:01:03.25 --> 01:00:00.000\nSecond\n");
+
+        assertEquals(2, captions.size());
+        assertCaption(captions.get(0), 1000, 2500, 0, "Hello\nworld");
+        assertCaption(captions.get(1), 63250, 3600000, 0, "Second");
+    }
+
+    @Test
+    public void skipsByteOrderMark() {
+        List<TimedTextElement> captions = parse("\uFEFFWEBVTT\n\n00:00:01.000 --> 00:00:02.000\nHello\n");
+
+        assertEquals(1, captions.size());
+        assertCaption(captions.get(0), 1000, 2000, 0, "Hello");
+    }
+
+    @Test
+    public void skipsNoteAndStyleBlocks() {
+        List<TimedTextElement> captions = parse("WEBVTT - Title\n\n"
+                + "NOTE This is a comment\nspanning lines\n\n"
+                + "STYLE\n::cue { color: yellow }\n\n"
+                + "00:00:01.000 --> 00:00:02.000\nHello\n\n"
+                + "NOTE\nanother comment\n\n"
+                + "00:00:03.000 --> 00:00:04.000\nAgain\n");
+
+        assertEquals(2, captions.size());
+        assertEquals("Hello", captions.get(0).text);
+        assertEquals("Again", captions.get(1).text);
+    }
+
+    @Test
+    public void mapsCueSettingsToOrigin() {
+        int[] defaultOrigin = TimedTextElement.parseOrigin(null);
+
+        assertOrigin(10, 5, "position:10%,line-left line:5%");
+        assertOrigin(20, defaultOrigin[1], "align:start position:20%");
+        // Centred on its position, so the left edge is half of the size to the left
+        assertOrigin(30, defaultOrigin[1], "position:50% size:40%");
+        assertOrigin(20, defaultOrigin[1], "position:60%,line-right size:40%");
+        assertOrigin(0, defaultOrigin[1], "position:10% size:40% align:center");
+        // The left edge is unknown without a size
+        assertOrigin(defaultOrigin[0], defaultOrigin[1], "position:50%");
+        // Only lines given as a percentage and aligned on the top of the cue are used
+        assertOrigin(defaultOrigin[0], 10, "line:10.5%");
+        assertOrigin(defaultOrigin[0], defaultOrigin[1], "line:90%,end");
+        assertOrigin(defaultOrigin[0], defaultOrigin[1], "line:-1");
+        assertOrigin(defaultOrigin[0], defaultOrigin[1], "vertical:rl unknown:1%");
+    }
+
+    @Test
+    public void mapsRepeatedBeginToRegions() {
+        List<TimedTextElement> captions = parse("WEBVTT\n\n"
+                + "00:00:01.000 --> 00:00:02.000 line:80%\nBottom\n\n"
+                + "00:00:01.000 --> 00:00:02.000 line:10%\nTop\n\n"
+                + "00:00:03.000 --> 00:00:04.000\nNext\n");
+
+        assertEquals(0, captions.get(0).region);
+        assertEquals(1, captions.get(1).region);
+        assertEquals(10, captions.get(1).originY);
+        assertEquals(0, captions.get(2).region);
+    }
+
+    @Test
+    public void stripsTags() {
+        assertEquals("Hello world", parseText("<v Bob>Hello</v> <i>world</i>"));
+        assertEquals("Karaoke text", parseText("<c.yellow>Karaoke</c> <00:00:01.500>text"));
+        assertEquals("a\nb", parseText("<b>a\nb</b>"));
+    }
+
+    @Test
+    public void decodesCharacterReferences() {
+        assertEquals("Tom & Jerry <3 >", parseText("Tom &amp; Jerry &lt;3 &gt;"));
+        assertEquals("a\u00A0b\u200Ec\u200Fd", parseText("a&nbsp;b&lrm;c&rlm;d"));
+        // Decoded ampersands do not start a new reference
+        assertEquals("&lt;", parseText("&amp;lt;"));
+        assertEquals("&unknown; & a;", parseText("&unknown; & a;"));
+    }
+
+    @Test
+    public void skipsCuesWithInvalidTiming() {
+        List<TimedTextElement> captions = parse("WEBVTT\n\n"
+                + "00:00:xx.000 --> 00:00:02.000\nBroken\n\n"
+                + "00:00:03.000 --> 00:00:04.000\nValid\n");
+
+        assertEquals(1, captions.size());
+        assertEquals("Valid", captions.get(0).text);
+    }
+
+    @Test
+    public void parsesCueWithoutText() {
+        List<TimedTextElement> captions = parse("WEBVTT\n\n00:00:01.000 --> 00:00:02.000\n\n");
+
+        assertEquals(1, captions.size());
+        assertNull(captions.get(0).text);
+    }
+
+    private static void assertCaption(TimedTextElement caption, int begin, int end, int region, String text) {
+        assertEquals(begin, caption.begin);
+        assertEquals(end, caption.end);
+        assertEquals(region, caption.region);
+        assertEquals(text, caption.text);
+    }
+
+    private static void assertOrigin(int originX, int originY, String settings) {
+        List<TimedTextElement> captions = parse("WEBVTT\n\n00:00:01.000 --> 00:00:02.000 " + settings + "\nText\n");
+        assertEquals(1, captions.size());
+        assertEquals(settings, originX, captions.get(0).originX);
+        assertEquals(settings, originY, captions.get(0).originY);
+    }
+
+    private static String parseText(String cueText) {
+        List<TimedTextElement> captions = parse("WEBVTT\n\n00:00:01.000 --> 00:00:02.000\n" + cueText + "\n");
+        assertEquals(1, captions.size());
+        return captions.get(0).text;
+    }
+
+    static List<TimedTextElement> parse(String document) {
+        return parse(new WebVttCaptionParser(), document);
+    }
+
+    static List<TimedTextElement> parse(CaptionFormatParser parser, String document) {
+        final List<TimedTextElement> captions = new ArrayList<TimedTextElement>();
+        try {
+            assertTrue(parser.parse(new ByteArrayInputStream(document.getBytes("UTF-8")), new CaptionSink() {
+                @Override
+                public void onCaptions(List<TimedTextElement> batch) {
+                    captions.addAll(batch);
+                }
+            }, 2));
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+        assertTrue(parser.isComplete());
+        return captions;
+    }
+}
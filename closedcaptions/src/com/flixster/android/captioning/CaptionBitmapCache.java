@@ -0,0 +1,136 @@
+package com.flixster.android.captioning;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.support.v4.util.LruCache;
+
+/**
+ * A cache of captions rasterized into Bitmaps, shared by the CaptionViews of a CaptionedPlayer so that a caption
+ * displayed again, e.g. after seeking back, is not drawn again. Bitmaps are evicted least recently used first once
+ * their total size exceeds the maximum, and all are discarded when the CaptionStyle changes or memory runs low. Should
+ * only be used from the main thread.
+ */
+public class CaptionBitmapCache {
+
+    private final LruCache<Key, Bitmap> bitmaps;
+    /** Reused to look up Bitmaps without allocating */
+    private final Key probe = new Key();
+    private int styleVersion;
+
+    /**
+     * @param maxBytes - The maximum total size of the cached Bitmaps in bytes
+     */
+    public CaptionBitmapCache(int maxBytes) {
+        bitmaps = new LruCache<Key, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(Key key, Bitmap bitmap) {
+                return bitmap.getRowBytes() * bitmap.getHeight();
+            }
+        };
+    }
+
+    /**
+     * @return the Bitmap of the text drawn with the style at the size, or null if it is not cached
+     */
+    Bitmap get(CharSequence text, CaptionStyle style, int width, int height, float textSize) {
+        checkStyle(style);
+        probe.set(text.toString(), style.getVersion(), width, height, textSize);
+        return bitmaps.get(probe);
+    }
+
+    /** Caches the Bitmap of the text drawn with the style at the size */
+    void put(CharSequence text, CaptionStyle style, int width, int height, float textSize, Bitmap bitmap) {
+        checkStyle(style);
+        Key key = new Key();
+        key.set(text.toString(), style.getVersion(), width, height, textSize);
+        bitmaps.put(key, bitmap);
+    }
+
+    /** Discards all Bitmaps */
+    public void clear() {
+        bitmaps.evictAll();
+    }
+
+    /**
+     * Discards all Bitmaps once the system runs low on memory, or the app is no longer visible
+     *
+     * @param level - The level passed to onTrimMemory(), one of the TRIM_MEMORY values of ComponentCallbacks2
+     */
+    public void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            bitmaps.evictAll();
+        }
+    }
+
+    /** @return the fraction of lookups which found a cached Bitmap, between 0 and 1 */
+    public float getHitRate() {
+        int lookups = bitmaps.hitCount() + bitmaps.missCount();
+        return lookups > 0 ? bitmaps.hitCount() / (float) lookups : 0;
+    }
+
+    public int getHitCount() {
+        return bitmaps.hitCount();
+    }
+
+    public int getMissCount() {
+        return bitmaps.missCount();
+    }
+
+    /** @return the total size of the cached Bitmaps in bytes */
+    public int getSizeBytes() {
+        return bitmaps.size();
+    }
+
+    public int getMaxSizeBytes() {
+        return bitmaps.maxSize();
+    }
+
+    @Override
+    public String toString() {
+        return "CaptionBitmapCache[" + bitmaps.size() + "/" + bitmaps.maxSize() + " bytes, " + bitmaps.hitCount() + "/"
+                + (bitmaps.hitCount() + bitmaps.missCount()) + " hits]";
+    }
+
+    /** Discards the Bitmaps drawn with a previous style, which will not be displayed again */
+    private void checkStyle(CaptionStyle style) {
+        if (style.getVersion() != styleVersion) {
+            bitmaps.evictAll();
+            styleVersion = style.getVersion();
+        }
+    }
+
+    private static class Key {
+        private String text;
+        private int styleVersion;
+        private int width;
+        private int height;
+        private float textSize;
+
+        void set(String text, int styleVersion, int width, int height, float textSize) {
+            this.text = text;
+            this.styleVersion = styleVersion;
+            this.width = width;
+            this.height = height;
+            this.textSize = textSize;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return styleVersion == other.styleVersion && width == other.width && height == other.height
+                    && textSize == other.textSize && text.equals(other.text);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = text.hashCode();
+            hash = 31 * hash + styleVersion;
+            hash = 31 * hash + width;
+            hash = 31 * hash + height;
+            return 31 * hash + Float.floatToIntBits(textSize);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.flixster.android.captioning;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/** The caption file formats supported by the library, along with detection of the format of a file */
+public enum CaptionFormat {
+    TTML, // SMPTE-TT/TTML
+    WEBVTT, // WebVTT
+    SRT; // SubRip
+
+    /** Number of bytes examined when detecting the format of a file */
+    private static final int SNIFF_LENGTH = 64;
+    private static final String WEBVTT_SIGNATURE = "WEBVTT";
+
+    /** @return a new parser for files of this format */
+    public CaptionFormatParser newParser() {
+        switch (this) {
+            case WEBVTT:
+                return new WebVttCaptionParser();
+            case SRT:
+                return new SrtCaptionParser();
+            case TTML:
+            default:
+                return new CaptionsXmlParser();
+        }
+    }
+
+    /**
+     * Detects the format of a caption file by examining its first bytes. The stream is reset afterwards, so it must
+     * support mark() and reset(), e.g. a BufferedInputStream.
+     * 
+     * @return the detected format, or TTML if the format could not be recognized
+     */
+    public static CaptionFormat detect(InputStream is) throws IOException {
+        byte[] head = new byte[SNIFF_LENGTH];
+        int length = 0;
+        is.mark(SNIFF_LENGTH);
+        try {
+            int read;
+            while (length < SNIFF_LENGTH && (read = is.read(head, length, SNIFF_LENGTH - length)) != -1) {
+                length += read;
+            }
+        } finally {
+            is.reset();
+        }
+
+        int pos = 0;
+        if (length >= 3 && (head[0] & 0xFF) == 0xEF && (head[1] & 0xFF) == 0xBB && (head[2] & 0xFF) == 0xBF) {
+            pos = 3; // UTF-8 byte order mark
+        }
+        while (pos < length && (head[pos] == ' ' || head[pos] == '\t' || head[pos] == '\r' || head[pos] == '\n')) {
+            pos++;
+        }
+        if (pos >= length) {
+            return TTML;
+        }
+
+        if (length - pos >= WEBVTT_SIGNATURE.length()) {
+            boolean webVtt = true;
+            for (int i = 0; i < WEBVTT_SIGNATURE.length(); i++) {
+                if (head[pos + i] != WEBVTT_SIGNATURE.charAt(i)) {
+                    webVtt = false;
+                    break;
+                }
+            }
+            if (webVtt) {
+                return WEBVTT;
+            }
+        }
+        if (head[pos] >= '0' && head[pos] <= '9') {
+            return SRT;
+        }
+        return TTML;
+    }
+}
@@ -0,0 +1,30 @@
+package com.flixster.android.captioning;
+
+import java.io.InputStream;
+
+/**
+ * Common interface for the parsers of each supported caption file format. Every implementation streams its captions
+ * to a CaptionSink as TimedTextElements, so the rest of the library does not depend on the format of the file.
+ */
+public interface CaptionFormatParser {
+
+    /**
+     * Streams the captions from the file inputstream into the sink, publishing TimedTextElements in batches as soon as
+     * they are read rather than once the whole file has been parsed.
+     * 
+     * @param is - The caption file inputstream
+     * @param sink - Receives the TimedTextElements on the calling thread, in file order
+     * @param batchSize - The number of TimedTextElements to collect before publishing them to the sink. The final
+     *            batch may be smaller.
+     * @return false if the file could not be read at all, true otherwise
+     */
+    public abstract boolean parse(InputStream is, CaptionSink sink, int batchSize);
+
+    /** @return true if the last parse read the whole file, false if it stopped early on an error */
+    public abstract boolean isComplete();
+
+    /**
+     * @return the pool which deduplicated the caption texts of the last parse, for reporting how much memory it saved
+     */
+    public abstract TextPool getTextPool();
+}
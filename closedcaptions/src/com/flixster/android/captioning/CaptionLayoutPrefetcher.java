@@ -0,0 +1,171 @@
+package com.flixster.android.captioning;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.text.StaticLayout;
+import android.text.TextPaint;
+
+/**
+ * Lays out the text of upcoming captions on the layout thread of the CaptionWorker while the current captions are
+ * displayed, so that a CaptionView can draw a caption as it becomes active without laying out its text again on the
+ * main thread. Layouts are prepared for a given width and paint, and are only used if the CaptionView still has
+ * them when the caption is displayed.
+ */
+class CaptionLayoutPrefetcher {
+
+    private final int maxLayouts;
+    private final Map<LayoutKey, StaticLayout> layouts;
+    private CaptionWorker.Task pendingTask;
+    private int hits;
+    private int misses;
+
+    /**
+     * @param lookahead - The number of upcoming captions laid out at a time
+     */
+    public CaptionLayoutPrefetcher(int lookahead) {
+        maxLayouts = lookahead * 2;
+        layouts = new LinkedHashMap<LayoutKey, StaticLayout>(maxLayouts * 2, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<LayoutKey, StaticLayout> eldest) {
+                return size() > maxLayouts;
+            }
+        };
+    }
+
+    /**
+     * Lays out the texts in the background, replacing any texts which have not yet been laid out. Must be called on
+     * the main thread, only when the upcoming texts change, as the keys of the texts are allocated on each call.
+     *
+     * @param texts - The texts of the upcoming captions, up to count
+     * @param widths - The width at which each text will be laid out
+     * @param paints - The paint with which each text will be laid out, which must not be modified afterwards
+     */
+    public void prefetch(CharSequence[] texts, int[] widths, TextPaint[] paints, int count) {
+        if (pendingTask != null) {
+            pendingTask.cancel();
+        }
+        // The arrays may be reused by the caller, so the texts still to be laid out are copied
+        final LayoutKey[] keys = new LayoutKey[count];
+        final CharSequence[] pendingTexts = new CharSequence[count];
+        final TextPaint[] pendingPaints = new TextPaint[count];
+        int pendingCount = 0;
+        for (int i = 0; i < count; i++) {
+            LayoutKey key = new LayoutKey(texts[i], widths[i], paints[i]);
+            if (!contains(key)) {
+                keys[pendingCount] = key;
+                pendingTexts[pendingCount] = texts[i];
+                pendingPaints[pendingCount] = paints[i];
+                pendingCount++;
+            }
+        }
+        if (pendingCount == 0) {
+            pendingTask = null;
+            return;
+        }
+
+        final int layoutCount = pendingCount;
+        pendingTask = CaptionWorker.postLayout(new CaptionWorker.Task() {
+            @Override
+            public void run() {
+                for (int i = 0; i < layoutCount && !isCancelled(); i++) {
+                    // Each layout has its own paint, as the paint of a layout is modified when it is drawn
+                    StaticLayout layout = CaptionView.createLayout(pendingTexts[i], keys[i].width, new TextPaint(
+                            pendingPaints[i]));
+                    synchronized (layouts) {
+                        layouts.put(keys[i], layout);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * @param paint - A paint with the text size and flags with which the text is displayed
+     * @return the layout prepared for the text, width and paint, or null if it has not been laid out yet. A returned
+     *         layout is removed from the prefetcher.
+     */
+    public StaticLayout take(CharSequence text, int width, TextPaint paint) {
+        StaticLayout layout;
+        synchronized (layouts) {
+            layout = layouts.remove(new LayoutKey(text, width, paint));
+        }
+        if (layout != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return layout;
+    }
+
+    /** Cancels any layout in progress and discards the prepared layouts */
+    public void clear() {
+        if (pendingTask != null) {
+            pendingTask.cancel();
+            pendingTask = null;
+        }
+        synchronized (layouts) {
+            layouts.clear();
+        }
+    }
+
+    /** @return the number of captions displayed with a prepared layout */
+    public int getHits() {
+        return hits;
+    }
+
+    /** @return the number of captions displayed without a prepared layout */
+    public int getMisses() {
+        return misses;
+    }
+
+    @Override
+    public String toString() {
+        return "CaptionLayoutPrefetcher[" + hits + "/" + (hits + misses) + " hits]";
+    }
+
+    private boolean contains(LayoutKey key) {
+        synchronized (layouts) {
+            return layouts.containsKey(key);
+        }
+    }
+
+    /**
+     * Identifies a layout by its text, and by the width, paint attributes and preferences which affect line breaking.
+     * The typeface is identified by the preferred font and style, as typefaces are not comparable on all versions.
+     */
+    private static class LayoutKey {
+        private final String text;
+        private final int width;
+        private final float textSize;
+        private final int flags;
+        private final int fontType;
+        private final int textStyle;
+
+        public LayoutKey(CharSequence text, int width, TextPaint paint) {
+            this.text = text.toString();
+            this.width = width;
+            textSize = paint.getTextSize();
+            flags = paint.getFlags();
+            fontType = CaptionPreferences.instance().getFontType();
+            textStyle = CaptionPreferences.instance().getTextStyle();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof LayoutKey)) {
+                return false;
+            }
+            LayoutKey other = (LayoutKey) o;
+            return width == other.width && textSize == other.textSize && flags == other.flags
+                    && fontType == other.fontType && textStyle == other.textStyle && text.equals(other.text);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * text.hashCode() + width) + Float.floatToIntBits(textSize);
+        }
+    }
+}
@@ -78,6 +78,10 @@ public class CaptionPreferences {
     private int edgeColorG;
     private int edgeColorB;
 
+    // The snapshot of the current preferences, published lazily after each change
+    private CaptionStyle style;
+    private int styleVersion;
+
     private CaptionPreferences() {
         restoreFromSavedPrefs();
     }
@@ -181,6 +185,19 @@ public class CaptionPreferences {
         return textEdgeColor;
     }
 
+    /**
+     * Fetches a snapshot of the preferences which affect how captions are drawn. The same snapshot is returned until a
+     * preference changes, so it may be compared by version, or by reference, to detect changes.
+     * 
+     * @return an immutable CaptionStyle of the current preferences.
+     */
+    public CaptionStyle getStyle() {
+        if (style == null) {
+            style = new CaptionStyle(++styleVersion, this);
+        }
+        return style;
+    }
+
     /**
      * Fetches the individual primary color values of the caption text.
      * 
@@ -628,8 +645,12 @@ public class CaptionPreferences {
         setBgOpacity(Integer.parseInt(savedVals[10]));
     }
 
-    /** Sends the current settings to be stored by the targeted CaptionPreferenceStorage */
+    /**
+     * Sends the current settings to be stored by the targeted CaptionPreferenceStorage, and discards the CaptionStyle
+     * of the previous settings
+     */
     private void savePrefs() {
+        style = null;
         if (prefStorage != null) {
             String saveState = captionsEnabled + "," + language + "," + fontType + "," + textStyle + "," + textSize
                     + "," + textEdgeStyle + "," + textColor + "," + bgColor + "," + textEdgeColor + "," + textOpacity
@@ -0,0 +1,16 @@
+package com.flixster.android.captioning;
+
+import java.util.List;
+
+/**
+ * Receives TimedTextElements from a CaptionFormatParser while the file is still being parsed, so that captions can be
+ * displayed before the entire file has been read.
+ */
+public interface CaptionSink {
+
+    /**
+     * Called on the parsing thread each time a batch of TimedTextElements has been read, in document order. The list is
+     * never reused by the parser, so it may safely be handed off to another thread.
+     */
+    public abstract void onCaptions(List<TimedTextElement> batch);
+}
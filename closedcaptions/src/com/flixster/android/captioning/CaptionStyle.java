@@ -0,0 +1,128 @@
+package com.flixster.android.captioning;
+
+import android.graphics.Color;
+import android.graphics.Typeface;
+
+/**
+ * An immutable snapshot of the CaptionPreferences which affect how captions are drawn, with the colors packed as ARGB
+ * ints and the Typeface resolved for the text style, so that drawing a caption needs no lookups or allocations. A new
+ * snapshot with a greater version is published by CaptionPreferences.getStyle() whenever a preference changes.
+ */
+public final class CaptionStyle {
+
+    private final int version;
+    private final int fontType;
+    private final int textStyle;
+    private final int textSize;
+    private final int textEdgeStyle;
+    private final Typeface typeface;
+
+    private final int textColor;
+    private final int textEdgeColor;
+    private final int underlineShadowColor;
+    private final int shadowColor;
+    private final int bgColor;
+
+    private final float underlineWidth;
+    private final float uniformUnderlineWidth;
+    private final float outlineWidth;
+
+    CaptionStyle(int version, CaptionPreferences prefs) {
+        this.version = version;
+        fontType = prefs.getFontType();
+        textStyle = prefs.getTextStyle();
+        textSize = prefs.getTextSize();
+        textEdgeStyle = prefs.getTextEdgeStyle();
+
+        if (textStyle == CaptionPreferences.TEXT_STYLE_BOLD) {
+            typeface = Typeface.create(prefs.getTypeface(), Typeface.BOLD);
+        } else if (textStyle == CaptionPreferences.TEXT_STYLE_ITALIC) {
+            typeface = Typeface.create(prefs.getTypeface(), Typeface.ITALIC);
+        } else {
+            typeface = prefs.getTypeface();
+        }
+
+        int[] colorVals = prefs.getTextARGB();
+        textColor = Color.argb(colorVals[0], colorVals[1], colorVals[2], colorVals[3]);
+        colorVals = prefs.getTextEdgeARGB();
+        textEdgeColor = Color.argb(colorVals[0], colorVals[1], colorVals[2], colorVals[3]);
+        underlineShadowColor = Color.argb((int) (colorVals[0] * 0.5), colorVals[1], colorVals[2], colorVals[3]);
+        shadowColor = prefs.getTextEdgeColor();
+        colorVals = prefs.getBgARGB();
+        bgColor = Color.argb(colorVals[0], colorVals[1], colorVals[2], colorVals[3]);
+
+        underlineWidth = textSize * 0.08f;
+        uniformUnderlineWidth = textSize * 0.10f;
+        outlineWidth = textSize * 0.05f;
+    }
+
+    /** @return a number which is greater for each snapshot published by CaptionPreferences */
+    public int getVersion() {
+        return version;
+    }
+
+    /** @return one of the TEXT_FONT values of CaptionPreferences */
+    public int getFontType() {
+        return fontType;
+    }
+
+    /** @return one of the TEXT_STYLE values of CaptionPreferences */
+    public int getTextStyle() {
+        return textStyle;
+    }
+
+    /** @return the size of the text in "sp", one of the TEXT_SIZE values of CaptionPreferences */
+    public int getTextSize() {
+        return textSize;
+    }
+
+    /** @return one of the TEXT_EDGE values of CaptionPreferences */
+    public int getTextEdgeStyle() {
+        return textEdgeStyle;
+    }
+
+    /** @return the Typeface of the font, made bold or italic according to the text style */
+    public Typeface getTypeface() {
+        return typeface;
+    }
+
+    /** @return the ARGB color of the text, including its opacity */
+    public int getTextColor() {
+        return textColor;
+    }
+
+    /** @return the ARGB color of the outline and underline edges, with the opacity of the text */
+    public int getTextEdgeColor() {
+        return textEdgeColor;
+    }
+
+    /** @return the ARGB color of the shadow drawn under an underline, at half the opacity of the text */
+    public int getUnderlineShadowColor() {
+        return underlineShadowColor;
+    }
+
+    /** @return the color of the shadow layer of the text, as set by CaptionPreferences.setTextEdgeColor() */
+    public int getShadowColor() {
+        return shadowColor;
+    }
+
+    /** @return the ARGB color of the background, including its opacity */
+    public int getBgColor() {
+        return bgColor;
+    }
+
+    /** @return the stroke width of an underline, in "sp" */
+    public float getUnderlineWidth() {
+        return underlineWidth;
+    }
+
+    /** @return the stroke width of the edge of an underline with a uniform edge, in "sp" */
+    public float getUniformUnderlineWidth() {
+        return uniformUnderlineWidth;
+    }
+
+    /** @return the stroke width of the outline of the text, in "sp" */
+    public float getOutlineWidth() {
+        return outlineWidth;
+    }
+}
@@ -0,0 +1,136 @@
+package com.flixster.android.captioning;
+
+import java.util.Arrays;
+
+/**
+ * Decides which caption each region displays as playback progresses, independently of any View or player, so that
+ * caption timing can be driven from tests and benchmarks as well as by CaptionedPlayer. The timeline is driven with
+ * playback positions through tick(), and reports each change in the displayed captions to its Listener. When several
+ * captions of a region are active, the one which began last is displayed.
+ */
+public class CaptionTimeline {
+
+    /** Receives the changes in the captions displayed by each region of a CaptionTimeline */
+    public interface Listener {
+
+        /** Called when a region which displayed nothing starts displaying the caption at the index of the track */
+        public abstract void onShow(int region, int index);
+
+        /** Called when a region which displayed a caption starts displaying another, the caption at the index */
+        public abstract void onUpdate(int region, int index);
+
+        /** Called when a region stops displaying a caption */
+        public abstract void onHide(int region);
+    }
+
+    private final Listener listener;
+    private final int[] shownIndices;
+    private final int[] regionIndices;
+    private int[] activeIndices = new int[4];
+
+    private CaptionTrack track;
+    private boolean valid;
+    private int position;
+    private int nextChange = -1;
+
+    /**
+     * @param regionCount - The number of regions which display captions. Captions of other regions are ignored.
+     * @param listener - Receives the changes in the displayed captions
+     */
+    public CaptionTimeline(int regionCount, Listener listener) {
+        this.listener = listener;
+        shownIndices = new int[regionCount];
+        regionIndices = new int[regionCount];
+        Arrays.fill(shownIndices, -1);
+    }
+
+    /** Sets the captions to display, which may be null. The displayed captions change at the next tick. */
+    public void setTrack(CaptionTrack track) {
+        this.track = track;
+        valid = false;
+    }
+
+    public CaptionTrack getTrack() {
+        return track;
+    }
+
+    /**
+     * Looks up the displayed captions again at the next tick, even if no caption is due to change. Should be called
+     * when captions have been added to the track.
+     */
+    public void invalidate() {
+        valid = false;
+    }
+
+    /** Considers all regions to be displaying nothing, without notifying the Listener, e.g. after hiding their Views */
+    public void reset() {
+        Arrays.fill(shownIndices, -1);
+        valid = false;
+    }
+
+    /**
+     * Moves the timeline to the playback position, notifying the Listener of any change to the displayed captions. A
+     * position between the previous one and the next change, i.e. normal playback, is handled without any lookup.
+     * Any other position, i.e. a seek in either direction, looks up the active captions in the time index of the track.
+     *
+     * @param position - The playback position in milliseconds
+     */
+    public void tick(int position) {
+        if (valid && position >= this.position && (nextChange < 0 || position < nextChange)) {
+            this.position = position;
+            return;
+        }
+        update(position);
+    }
+
+    /** @return the time after the last position at which the displayed captions next change, or -1 if they won't */
+    public int getNextChange() {
+        return nextChange;
+    }
+
+    /** @return the index of the caption displayed by the region, or -1 if none */
+    public int getShownIndex(int region) {
+        return shownIndices[region];
+    }
+
+    public int getRegionCount() {
+        return shownIndices.length;
+    }
+
+    private void update(int position) {
+        Arrays.fill(regionIndices, -1);
+        if (track != null) {
+            int activeCount = track.findActive(position, activeIndices);
+            if (activeCount > activeIndices.length) {
+                activeIndices = new int[activeCount];
+                track.findActive(position, activeIndices);
+            }
+            for (int j = 0; j < activeCount; j++) {
+                int region = track.getRegion(activeIndices[j]);
+                if (region >= 0 && region < regionIndices.length) {
+                    regionIndices[region] = activeIndices[j];
+                }
+            }
+        }
+
+        for (int region = 0; region < regionIndices.length; region++) {
+            int index = regionIndices[region];
+            int shown = shownIndices[region];
+            if (index == shown) {
+                continue;
+            }
+            shownIndices[region] = index;
+            if (index < 0) {
+                listener.onHide(region);
+            } else if (shown < 0) {
+                listener.onShow(region, index);
+            } else {
+                listener.onUpdate(region, index);
+            }
+        }
+
+        this.position = position;
+        nextChange = track != null ? track.nextBoundary(position) : -1;
+        valid = true;
+    }
+}
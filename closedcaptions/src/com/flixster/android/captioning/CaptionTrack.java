@@ -0,0 +1,336 @@
+package com.flixster.android.captioning;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact storage for all of the captions of a video. Values are held in parallel primitive arrays indexed by
+ * caption, with each caption's text referenced by id from a shared text pool, so that scanning the track touches no
+ * objects. Identical texts share a single pool entry, so caches keyed by text id hit for every repetition of a
+ * text. The TimedTextElement view of a caption is still available through get() and asList().
+ * <p>
+ * The track is also indexed by time, so that the captions active at any time can be found with a binary search rather
+ * than a scan from the start of the track. Captions are normally appended in order of begin time, in which case the
+ * index is maintained as they are appended; otherwise it is rebuilt on the first lookup after an append.
+ */
+public final class CaptionTrack {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private int size;
+    private int[] begin;
+    private int[] end;
+    private int[] region;
+    private int[] originX;
+    private int[] originY;
+    private int[] textId;
+
+    /** The greatest end time of the captions up to and including each position in order of begin time */
+    private int[] maxEnd;
+    /**
+     * Whether the captions were appended in order of begin time, in which case the order and orderedBegin are unused
+     */
+    private boolean sortedByBegin = true;
+    /** The indices of the captions, in order of begin time */
+    private int[] order;
+    private int[] orderedBegin;
+
+    private int textPoolSize;
+    private String[] textPool;
+    /** The ids of the texts in the pool while captions are being added, or null once the track is complete */
+    private Map<String, Integer> textIds = new HashMap<String, Integer>();
+
+    public CaptionTrack() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public CaptionTrack(int capacity) {
+        capacity = Math.max(1, capacity);
+        begin = new int[capacity];
+        end = new int[capacity];
+        region = new int[capacity];
+        originX = new int[capacity];
+        originY = new int[capacity];
+        textId = new int[capacity];
+        maxEnd = new int[capacity];
+        textPool = new String[capacity];
+    }
+
+    /** Creates a track from TimedTextElements */
+    public CaptionTrack(List<TimedTextElement> ttElements) {
+        this(ttElements.size());
+        addAll(ttElements);
+        complete();
+    }
+
+    /** @return the number of captions in the track */
+    public int size() {
+        return size;
+    }
+
+    /** @return the time in milliseconds at which the caption at the index is displayed */
+    public int getBegin(int index) {
+        checkIndex(index);
+        return begin[index];
+    }
+
+    /** @return the time in milliseconds at which the caption at the index is hidden */
+    public int getEnd(int index) {
+        checkIndex(index);
+        return end[index];
+    }
+
+    /** @return the region, or CaptionView position, of the caption at the index */
+    public int getRegion(int index) {
+        checkIndex(index);
+        return region[index];
+    }
+
+    /** @return the horizontal origin of the caption at the index, as a percentage of the video width */
+    public int getOriginX(int index) {
+        checkIndex(index);
+        return originX[index];
+    }
+
+    /** @return the vertical origin of the caption at the index, as a percentage of the video height */
+    public int getOriginY(int index) {
+        checkIndex(index);
+        return originY[index];
+    }
+
+    /** @return the text of the caption at the index, which may be null */
+    public String getText(int index) {
+        checkIndex(index);
+        return textPool[textId[index]];
+    }
+
+    /** @return the id of the caption's text within the text pool. Captions with equal ids have the same text. */
+    public int getTextId(int index) {
+        checkIndex(index);
+        return textId[index];
+    }
+
+    /** @return the number of entries in the text pool */
+    public int getTextPoolSize() {
+        return textPoolSize;
+    }
+
+    /** @return the text pool entry with the id, which may be null */
+    String getPooledText(int textId) {
+        if (textId < 0 || textId >= textPoolSize) {
+            throw new IndexOutOfBoundsException("Text id " + textId + ", pool size " + textPoolSize);
+        }
+        return textPool[textId];
+    }
+
+    /** @return a new TimedTextElement holding the values of the caption at the index */
+    public TimedTextElement get(int index) {
+        checkIndex(index);
+        return new TimedTextElement(begin[index], end[index], region[index], originX[index], originY[index],
+                textPool[textId[index]]);
+    }
+
+    /**
+     * Finds the captions which are displayed at a time, i.e. which begin at or before it and end after it. The lookup
+     * takes O(log n) time, plus time proportional to the number of captions between the earliest still displayed and
+     * the time, which unless a caption spans many others is the number of active captions found.
+     *
+     * @param time - The playback position in milliseconds
+     * @param indices - Receives the indices of the active captions, in order of begin time. Captions beyond the length
+     *            of the array are counted but not stored.
+     * @return the number of active captions, which may exceed the length of indices
+     */
+    public int findActive(int time, int[] indices) {
+        ensureIndex();
+        int[] sortedBegin = sortedByBegin ? begin : orderedBegin;
+        int count = 0;
+        for (int k = firstAfter(maxEnd, time), last = firstAfter(sortedBegin, time); k < last; k++) {
+            int index = sortedByBegin ? k : order[k];
+            if (end[index] > time) {
+                if (count < indices.length) {
+                    indices[count] = index;
+                }
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Finds the captions which begin after a time, i.e. those which will be displayed next.
+     *
+     * @param time - The playback position in milliseconds
+     * @param indices - Receives the indices of the next captions, in order of begin time, up to its length
+     * @return the number of indices stored
+     */
+    public int findNext(int time, int[] indices) {
+        ensureIndex();
+        int first = firstAfter(sortedByBegin ? begin : orderedBegin, time);
+        int count = Math.min(indices.length, size - first);
+        for (int k = 0; k < count; k++) {
+            indices[k] = sortedByBegin ? first + k : order[first + k];
+        }
+        return count;
+    }
+
+    /**
+     * @param time - The playback position in milliseconds
+     * @return the earliest time after the time at which a caption begins or ends, i.e. the next time at which the
+     *         active captions change, or -1 if they will not change again
+     */
+    public int nextBoundary(int time) {
+        ensureIndex();
+        int[] sortedBegin = sortedByBegin ? begin : orderedBegin;
+        int last = firstAfter(sortedBegin, time);
+        int next = last < size ? sortedBegin[last] : -1;
+        for (int k = firstAfter(maxEnd, time); k < last; k++) {
+            int captionEnd = end[sortedByBegin ? k : order[k]];
+            if (captionEnd > time && (next < 0 || captionEnd < next)) {
+                next = captionEnd;
+            }
+        }
+        return next;
+    }
+
+    /** @return a read-only List view of the track, which creates TimedTextElements as they are accessed */
+    public List<TimedTextElement> asList() {
+        return new AbstractList<TimedTextElement>() {
+            @Override
+            public TimedTextElement get(int index) {
+                return CaptionTrack.this.get(index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /** Appends the TimedTextElements, in order, to the end of the track */
+    void addAll(List<TimedTextElement> ttElements) {
+        ensureCapacity(size + ttElements.size());
+        for (int i = 0; i < ttElements.size(); i++) {
+            TimedTextElement ttElement = ttElements.get(i);
+            add(ttElement.begin, ttElement.end, ttElement.region, ttElement.originX, ttElement.originY,
+                    ttElement.text);
+        }
+    }
+
+    /** Appends a caption to the end of the track */
+    void add(int begin, int end, int region, int originX, int originY, String text) {
+        ensureCapacity(size + 1);
+        this.begin[size] = begin;
+        this.end[size] = end;
+        this.region[size] = region;
+        this.originX[size] = originX;
+        this.originY[size] = originY;
+        this.textId[size] = addText(text);
+        if (sortedByBegin) {
+            if (size > 0 && begin < this.begin[size - 1]) {
+                sortedByBegin = false;
+            } else {
+                maxEnd[size] = size > 0 ? Math.max(maxEnd[size - 1], end) : end;
+            }
+        }
+        size++;
+    }
+
+    /**
+     * Called once all of the captions have been added, to release the map used to share texts between them and trim the
+     * text pool. Captions may still be added afterwards, at the cost of rebuilding the map.
+     */
+    void complete() {
+        textIds = null;
+        if (textPoolSize < textPool.length) {
+            String[] trimmed = new String[textPoolSize];
+            System.arraycopy(textPool, 0, trimmed, 0, textPoolSize);
+            textPool = trimmed;
+        }
+    }
+
+    /** Adds the text to the text pool if it is not already there, and returns its id */
+    private int addText(String text) {
+        if (textIds == null) {
+            textIds = new HashMap<String, Integer>();
+            for (int i = 0; i < textPoolSize; i++) {
+                textIds.put(textPool[i], i);
+            }
+        }
+        Integer id = textIds.get(text);
+        if (id != null) {
+            return id;
+        }
+        if (textPoolSize == textPool.length) {
+            String[] grown = new String[textPoolSize + (textPoolSize >> 1) + 1];
+            System.arraycopy(textPool, 0, grown, 0, textPoolSize);
+            textPool = grown;
+        }
+        textPool[textPoolSize] = text;
+        textIds.put(text, textPoolSize);
+        return textPoolSize++;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > begin.length) {
+            int newCapacity = Math.max(capacity, begin.length + (begin.length >> 1));
+            begin = grow(begin, newCapacity);
+            end = grow(end, newCapacity);
+            region = grow(region, newCapacity);
+            originX = grow(originX, newCapacity);
+            originY = grow(originY, newCapacity);
+            textId = grow(textId, newCapacity);
+            maxEnd = grow(maxEnd, newCapacity);
+        }
+    }
+
+    /** Rebuilds the time index if captions have been appended out of order since it was last built */
+    private void ensureIndex() {
+        if (sortedByBegin || (order != null && order.length == size)) {
+            return;
+        }
+        long[] keys = new long[size];
+        for (int i = 0; i < size; i++) {
+            keys[i] = ((long) begin[i] << 32) | i;
+        }
+        Arrays.sort(keys);
+        order = new int[size];
+        orderedBegin = new int[size];
+        for (int k = 0; k < size; k++) {
+            int index = (int) keys[k];
+            order[k] = index;
+            orderedBegin[k] = begin[index];
+            maxEnd[k] = k > 0 ? Math.max(maxEnd[k - 1], end[index]) : end[index];
+        }
+    }
+
+    /** @return the first position in the non-decreasing array, up to size, whose value is greater than the value */
+    private int firstAfter(int[] array, int value) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (array[mid] <= value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int[] grow(int[] array, int capacity) {
+        int[] grown = new int[capacity];
+        System.arraycopy(array, 0, grown, 0, size);
+        return grown;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + ", size " + size);
+        }
+    }
+}
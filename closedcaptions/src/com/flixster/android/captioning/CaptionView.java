@@ -1,14 +1,14 @@
 package com.flixster.android.captioning;
 
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
-import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Paint.Join;
-import android.graphics.Typeface;
 import android.text.Layout;
 import android.text.StaticLayout;
 import android.text.TextPaint;
+import android.text.TextUtils;
 import android.util.AttributeSet;
 import android.widget.TextView;
 
@@ -16,6 +16,35 @@ import android.widget.TextView;
 public class CaptionView extends TextView {
 
     private final TextPaint mPaint;
+    /** A layout of the text prepared ahead of time, drawn instead of laying out the text again when it matches */
+    private StaticLayout preparedLayout;
+
+    // The layout drawn by onDraw(), and what it was laid out with. It is only rebuilt when one of these changes.
+    private StaticLayout drawnLayout;
+    private int layoutWidth;
+    private float layoutTextSize;
+    private int layoutFontType;
+    private int layoutTextStyle;
+    private int layoutPaintFlags;
+    // The same text laid out with the outline paint, for the drawn layout it was created for
+    private StaticLayout outlineLayout;
+    private StaticLayout outlinedLayout;
+
+    // The paints used to draw, configured once for the CaptionStyle, text size and layout the view was last drawn with.
+    // The text is filled with the paint of the drawn layout.
+    private CaptionStyle paintStyle;
+    private float paintTextSize;
+    private TextPaint fillPaint;
+    private final TextPaint outlinePaint = new TextPaint();
+    private final Paint underlinePaint = new Paint();
+    private final Paint underlineEdgePaint = new Paint();
+    private final Paint underlineShadowPaint = new Paint();
+
+    // Captions rasterized into Bitmaps, if enabled, and the Bitmap last drawn with its layout and style
+    private CaptionBitmapCache bitmapCache;
+    private Bitmap rasterized;
+    private StaticLayout rasterizedLayout;
+    private CaptionStyle rasterizedStyle;
 
     public CaptionView(Context context) {
         this(context, null);
@@ -38,125 +67,280 @@ public class CaptionView extends TextView {
     }
 
     /** Handles the shadow/outline of the text */
-    private void setShadowLayer(int edgeType) {
-        int shadowColor = CaptionPreferences.instance().getTextEdgeColor();
+    private static void setShadowLayer(Paint paint, CaptionStyle style) {
+        int shadowColor = style.getShadowColor();
 
-        switch (edgeType) {
+        switch (style.getTextEdgeStyle()) {
             case CaptionPreferences.TEXT_EDGE_DEPRESSED:
-                mPaint.setShadowLayer(0.01f, 0, -2, shadowColor);
+                paint.setShadowLayer(0.01f, 0, -2, shadowColor);
                 break;
             case CaptionPreferences.TEXT_EDGE_RAISED:
-                mPaint.setShadowLayer(0.01f, 0, 2, shadowColor);
+                paint.setShadowLayer(0.01f, 0, 2, shadowColor);
                 break;
             case CaptionPreferences.TEXT_EDGE_DROP_SHADOW:
-                mPaint.setShadowLayer(3, 2, 2, shadowColor);
+                paint.setShadowLayer(3, 2, 2, shadowColor);
                 break;
             case CaptionPreferences.TEXT_EDGE_NONE:
             case CaptionPreferences.TEXT_EDGE_UNIFORM:
             default:
-                mPaint.setShadowLayer(0, 0, 0, 0);
+                paint.setShadowLayer(0, 0, 0, 0);
                 break;
         }
     }
 
     /** Used to update the CaptionViews when they are initialized, or when the CaptionPreferences have been modified */
     public void applyPreferences() {
-        CaptionPreferences prefs = CaptionPreferences.instance();
+        CaptionStyle style = CaptionPreferences.instance().getStyle();
 
-        setTypeface(prefs.getTypeface());
+        setTypeface(style.getTypeface());
+        setTextColor(style.getTextColor());
+        setTextSize(style.getTextSize());
+        setBackgroundColor(style.getBgColor());
 
-        int[] colorVals = prefs.getTextARGB();
-        setTextColor(Color.argb(colorVals[0], colorVals[1], colorVals[2], colorVals[3]));
-        setTextSize(prefs.getTextSize());
+        invalidate();
+    }
 
-        if (prefs.getTextStyle() == CaptionPreferences.TEXT_STYLE_BOLD) {
-            setTypeface(Typeface.create(prefs.getTypeface(), Typeface.BOLD));
-        } else if (prefs.getTextStyle() == CaptionPreferences.TEXT_STYLE_ITALIC) {
-            setTypeface(Typeface.create(prefs.getTypeface(), Typeface.ITALIC));
-        }
+    /**
+     * Displays the text using a layout prepared ahead of time, e.g. by a CaptionLayoutPrefetcher, if it is not null.
+     * The prepared layout is drawn as long as it was laid out at the width available to the text, and otherwise the
+     * text is laid out again when drawn.
+     */
+    void setCaptionText(CharSequence text, StaticLayout layout) {
+        preparedLayout = layout;
+        setText(text);
+        requestLayout();
+        invalidate();
+    }
 
-        setShadowLayer(prefs.getTextEdgeStyle());
+    /**
+     * Draws captions whose style has an edge from Bitmaps rasterized once per caption and kept in the cache, rather
+     * than drawing their text and edges on every frame. Null, the default, disables rasterizing.
+     */
+    void setBitmapCache(CaptionBitmapCache cache) {
+        bitmapCache = cache;
+        rasterized = null;
+        rasterizedLayout = null;
+        rasterizedStyle = null;
+        invalidate();
+    }
+
+    /**
+     * @return the width available to the text when the CaptionView is given the width, or measured within it
+     */
+    int getTextWidth(int viewWidth) {
+        return viewWidth - getCompoundPaddingLeft() - getCompoundPaddingRight();
+    }
 
-        colorVals = prefs.getBgARGB();
-        int bgColor = Color.argb(colorVals[0], colorVals[1], colorVals[2], colorVals[3]);
-        setBackgroundColor(bgColor);
+    /** @return a new paint configured as the paint with which the text is laid out, for laying out on other threads */
+    TextPaint newLayoutPaint() {
+        TextPaint paint = new TextPaint(mPaint);
+        configureLayoutPaint(paint);
+        return paint;
+    }
 
-        invalidate();
+    /** Sets the typeface, size and flags with which the text is laid out */
+    private void configureLayoutPaint(TextPaint paint) {
+        paint.setTypeface(CaptionPreferences.instance().getStyle().getTypeface());
+        paint.setTextSize(getTextSize());
+        paint.setFlags(getPaintFlags());
     }
 
-    /** The overwritten onDraw() method which displays the caption text according to the defined CaptionPreferences */
+    /** @return a layout of the caption text, which may be created on any thread */
+    static StaticLayout createLayout(CharSequence text, int width, TextPaint paint) {
+        return new StaticLayout(text, paint, width, Layout.Alignment.ALIGN_NORMAL, 1.0f, 0, false);
+    }
+
+    /**
+     * Drops the prepared layout if it was not laid out at the width available to the text. The text is always measured
+     * by TextView, which keeps the layout returned by getLayout() and used by getLineCount() and getBaseline().
+     */
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        StaticLayout layout = preparedLayout;
+        if (layout != null && (MeasureSpec.getMode(widthMeasureSpec) == MeasureSpec.UNSPECIFIED
+                || getTextWidth(MeasureSpec.getSize(widthMeasureSpec)) != layout.getWidth()
+                || !TextUtils.equals(layout.getText(), getText()))) {
+            preparedLayout = null;
+        }
+        super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+    }
+
+    /**
+     * The overwritten onDraw() method which displays the caption text according to the defined CaptionPreferences.
+     * Nothing which affects the layout of the view is changed while drawing, as that would schedule another layout and
+     * draw, so a caption is only redrawn when it or the preferences change.
+     */
     @Override
     protected void onDraw(Canvas canvas) {
-        CaptionPreferences prefs = CaptionPreferences.instance();
+        CaptionStyle style = CaptionPreferences.instance().getStyle();
+        int edgeStyle = style.getTextEdgeStyle();
         float textSize = getTextSize();
-        int underlineOffset = (int) (textSize * 0.15f);
-        int[] colorVals = prefs.getTextARGB();
-        final StaticLayout layout = new StaticLayout(getText(), mPaint, getWidth(), Layout.Alignment.ALIGN_NORMAL,
-                1.0f, 0, false);
+        final StaticLayout layout = getDrawnLayout(style);
+        if (style != paintStyle || textSize != paintTextSize || layout.getPaint() != fillPaint) {
+            configurePaints(style, textSize, layout.getPaint());
+        }
+
+        if (bitmapCache != null && edgeStyle != CaptionPreferences.TEXT_EDGE_NONE) {
+            Bitmap bitmap = getRasterizedCaption(style, layout, textSize);
+            if (bitmap != null) {
+                canvas.drawBitmap(bitmap, 0, 0, null);
+                return;
+            }
+        }
+        drawCaption(canvas, style, layout, textSize);
+    }
 
+    /** Draws the text and its edges with the paints configured for the style */
+    private void drawCaption(Canvas canvas, CaptionStyle style, StaticLayout layout, float textSize) {
+        int edgeStyle = style.getTextEdgeStyle();
         final int saveCount = canvas.save();
         canvas.translate(0, 0);
 
-        if (prefs.getTextStyle() == CaptionPreferences.TEXT_STYLE_UNDERLINE) {
-            mPaint.setStrokeWidth(textSize * 0.08f);
-
+        if (style.getTextStyle() == CaptionPreferences.TEXT_STYLE_UNDERLINE) {
+            int underlineOffset = (int) (textSize * 0.15f);
             for (int i = 0; i < layout.getLineCount(); i++) {
                 int offsetY = layout.getLineBaseline(i) + underlineOffset;
-                colorVals = prefs.getTextEdgeARGB();
-                mPaint.setColor(Color.argb(colorVals[0], colorVals[1], colorVals[2], colorVals[3]));
-
-                if (prefs.getTextEdgeStyle() == CaptionPreferences.TEXT_EDGE_DROP_SHADOW) {
-                    mPaint.setColor(Color.argb((int) (colorVals[0] * 0.5), colorVals[1], colorVals[2], colorVals[3]));
-                    canvas.drawLine(layout.getLineStart(0), offsetY + 2, layout.getLineWidth(i), offsetY + 2, mPaint);
-                } else if (prefs.getTextEdgeStyle() == CaptionPreferences.TEXT_EDGE_RAISED) {
-                    canvas.drawLine(layout.getLineStart(0), offsetY + 1, layout.getLineWidth(i), offsetY + 1, mPaint);
-                } else if (prefs.getTextEdgeStyle() == CaptionPreferences.TEXT_EDGE_DEPRESSED) {
-                    canvas.drawLine(layout.getLineStart(0), offsetY - 1, layout.getLineWidth(i), offsetY - 1, mPaint);
-                } else if (prefs.getTextEdgeStyle() == CaptionPreferences.TEXT_EDGE_UNIFORM) {
-                    mPaint.setStrokeWidth(textSize * 0.10f);
-                    canvas.drawLine(layout.getLineStart(0), offsetY, layout.getLineWidth(i), offsetY, mPaint);
+                float startX = layout.getLineStart(0);
+                float endX = layout.getLineWidth(i);
+
+                if (edgeStyle == CaptionPreferences.TEXT_EDGE_DROP_SHADOW) {
+                    canvas.drawLine(startX, offsetY + 2, endX, offsetY + 2, underlineShadowPaint);
+                } else if (edgeStyle == CaptionPreferences.TEXT_EDGE_RAISED) {
+                    canvas.drawLine(startX, offsetY + 1, endX, offsetY + 1, underlineEdgePaint);
+                } else if (edgeStyle == CaptionPreferences.TEXT_EDGE_DEPRESSED) {
+                    canvas.drawLine(startX, offsetY - 1, endX, offsetY - 1, underlineEdgePaint);
+                } else if (edgeStyle == CaptionPreferences.TEXT_EDGE_UNIFORM) {
+                    canvas.drawLine(startX, offsetY, endX, offsetY, underlineEdgePaint);
                 }
-
-                mPaint.setStrokeWidth(textSize * 0.08f);
-                colorVals = prefs.getTextARGB();
-                mPaint.setColor(Color.argb(colorVals[0], colorVals[1], colorVals[2], colorVals[3]));
-                canvas.drawLine(layout.getLineStart(0), offsetY, layout.getLineWidth(i), offsetY, mPaint);
+                canvas.drawLine(startX, offsetY, endX, offsetY, underlinePaint);
             }
         }
 
-        if (prefs.getTextStyle() == CaptionPreferences.TEXT_STYLE_BOLD) {
-            mPaint.setTypeface(Typeface.create(prefs.getTypeface(), Typeface.BOLD));
-        } else if (prefs.getTextStyle() == CaptionPreferences.TEXT_STYLE_ITALIC) {
-            mPaint.setTypeface(Typeface.create(prefs.getTypeface(), Typeface.ITALIC));
-        } else if (prefs.getTextStyle() == CaptionPreferences.TEXT_STYLE_UNDERLINE) {
-            mPaint.setTypeface(prefs.getTypeface());
-        } else {
-            mPaint.setTypeface(prefs.getTypeface());
+        if (edgeStyle == CaptionPreferences.TEXT_EDGE_UNIFORM) {
+            getOutlineLayout(layout).draw(canvas);
         }
 
-        mPaint.setTextSize(textSize);
-        mPaint.setStrokeWidth(textSize * 0.05f);
+        layout.draw(canvas);
+        canvas.restoreToCount(saveCount);
+    }
 
-        if (prefs.getTextEdgeStyle() == CaptionPreferences.TEXT_EDGE_UNIFORM) {
+    /**
+     * @return the caption drawn into a Bitmap the size of the view, from the cache if it was drawn before, or null if
+     *         it could not be allocated
+     */
+    private Bitmap getRasterizedCaption(CaptionStyle style, StaticLayout layout, float textSize) {
+        int width = getWidth();
+        int height = getHeight();
+        if (rasterized != null && rasterizedLayout == layout && rasterizedStyle == style
+                && rasterized.getWidth() == width && rasterized.getHeight() == height) {
+            return rasterized;
+        }
+        rasterized = null;
+        rasterizedLayout = null;
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
 
-            colorVals = prefs.getTextEdgeARGB();
-            mPaint.setStyle(Paint.Style.STROKE);
-            mPaint.setStrokeJoin(Join.ROUND);
-            mPaint.setColor(Color.argb(colorVals[0], colorVals[1], colorVals[2], colorVals[3]));
-            mPaint.setFlags(getPaintFlags());
+        CharSequence text = layout.getText();
+        Bitmap bitmap = bitmapCache.get(text, style, width, height, textSize);
+        if (bitmap == null) {
+            try {
+                bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            } catch (OutOfMemoryError e) {
+                CaptionLogger.w("CaptionView.getRasterizedCaption could not allocate " + width + "x" + height);
+                bitmapCache.clear();
+                return null;
+            }
+            drawCaption(new Canvas(bitmap), style, layout, textSize);
+            bitmapCache.put(text, style, width, height, textSize, bitmap);
+        }
+        rasterized = bitmap;
+        rasterizedLayout = layout;
+        rasterizedStyle = style;
+        return bitmap;
+    }
 
-            layout.draw(canvas);
+    /**
+     * Configures the paints for drawing with the style at the text size, so that drawing does not modify any paint.
+     * Stroke widths of the style are in "sp", as is its text size.
+     */
+    private void configurePaints(CaptionStyle style, float textSize, TextPaint layoutPaint) {
+        float strokeScale = textSize / style.getTextSize();
+
+        fillPaint = layoutPaint;
+        fillPaint.setStyle(Paint.Style.FILL);
+        fillPaint.setColor(style.getTextColor());
+        fillPaint.setFlags(getPaintFlags());
+        setShadowLayer(fillPaint, style);
+
+        if (style.getTextEdgeStyle() == CaptionPreferences.TEXT_EDGE_UNIFORM) {
+            outlinePaint.set(fillPaint);
+            outlinePaint.setStyle(Paint.Style.STROKE);
+            outlinePaint.setStrokeJoin(Join.ROUND);
+            outlinePaint.setStrokeWidth(style.getOutlineWidth() * strokeScale);
+            outlinePaint.setColor(style.getTextEdgeColor());
         }
 
-        colorVals = prefs.getTextARGB();
-        mPaint.setStyle(Paint.Style.FILL);
-        mPaint.setColor(Color.argb(colorVals[0], colorVals[1], colorVals[2], colorVals[3]));
-        mPaint.setFlags(getPaintFlags());
+        if (style.getTextStyle() == CaptionPreferences.TEXT_STYLE_UNDERLINE) {
+            underlinePaint.set(fillPaint);
+            underlinePaint.setStrokeWidth(style.getUnderlineWidth() * strokeScale);
 
-        layout.draw(canvas);
-        canvas.restoreToCount(saveCount);
+            underlineEdgePaint.set(underlinePaint);
+            underlineEdgePaint.setColor(style.getTextEdgeColor());
+            if (style.getTextEdgeStyle() == CaptionPreferences.TEXT_EDGE_UNIFORM) {
+                underlineEdgePaint.setStrokeWidth(style.getUniformUnderlineWidth() * strokeScale);
+            }
 
-        setText(getText());
+            underlineShadowPaint.set(underlinePaint);
+            underlineShadowPaint.setColor(style.getUnderlineShadowColor());
+        }
+
+        paintStyle = style;
+        paintTextSize = textSize;
+    }
+
+    /**
+     * @return the layout of the text to draw, which is the prepared layout if it matches the text, or otherwise a new
+     *         layout. The layout is kept until the text, width, text size, font, style or paint flags change.
+     */
+    private StaticLayout getDrawnLayout(CaptionStyle style) {
+        CharSequence text = getText();
+        int width = getWidth();
+        float textSize = getTextSize();
+        int fontType = style.getFontType();
+        int textStyle = style.getTextStyle();
+        int paintFlags = getPaintFlags();
+        if (drawnLayout != null && width == layoutWidth && textSize == layoutTextSize && fontType == layoutFontType
+                && textStyle == layoutTextStyle && paintFlags == layoutPaintFlags
+                && TextUtils.equals(drawnLayout.getText(), text)) {
+            return drawnLayout;
+        }
+
+        if (preparedLayout != null && TextUtils.equals(preparedLayout.getText(), text)
+                && preparedLayout.getPaint().getTextSize() == textSize) {
+            drawnLayout = preparedLayout;
+        } else {
+            configureLayoutPaint(mPaint);
+            drawnLayout = createLayout(text, width, mPaint);
+        }
+        layoutWidth = width;
+        layoutTextSize = textSize;
+        layoutFontType = fontType;
+        layoutTextStyle = textStyle;
+        layoutPaintFlags = paintFlags;
+        return drawnLayout;
+    }
+
+    /**
+     * @return a layout of the text of the drawn layout with the outline paint, which a layout draws with, so that the
+     *         outline is positioned exactly as the fill. It is kept until the drawn layout changes.
+     */
+    private StaticLayout getOutlineLayout(StaticLayout layout) {
+        if (outlinedLayout != layout) {
+            outlineLayout = createLayout(layout.getText(), layout.getWidth(), outlinePaint);
+            outlinedLayout = layout;
+        }
+        return outlineLayout;
     }
 
     /**
@@ -0,0 +1,162 @@
+package com.flixster.android.captioning;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+
+/**
+ * The background threads on which the library fetches and parses captions, and lays out upcoming captions, shared by
+ * all CaptionedPlayers. Layouts have a thread of their own so that they are prepared while a fetch is running. Work is
+ * posted as Tasks which can be cancelled, e.g. when the Activity which requested them is destroyed, so that no thread
+ * is left working for an Activity which no longer exists.
+ */
+final class CaptionWorker {
+
+    private static final String THREAD_NAME = "CaptionWorker";
+    private static final String LAYOUT_THREAD_NAME = "CaptionLayout";
+    private static final String CLOSE_THREAD_NAME = "CaptionWorker-close";
+
+    private static Handler handler;
+    private static Handler layoutHandler;
+    private static Handler closeHandler;
+
+    private CaptionWorker() {
+    }
+
+    /** Runs the task on the worker thread after any tasks posted before it */
+    public static Task post(Task task) {
+        task.handler = handler();
+        task.handler.post(task);
+        return task;
+    }
+
+    /** Runs the layout task on the layout thread after any layout tasks posted before it */
+    public static Task postLayout(Task task) {
+        task.handler = layoutHandler();
+        task.handler.post(task);
+        return task;
+    }
+
+    private static synchronized Handler handler() {
+        if (handler == null) {
+            handler = startThread(THREAD_NAME);
+        }
+        return handler;
+    }
+
+    private static synchronized Handler layoutHandler() {
+        if (layoutHandler == null) {
+            layoutHandler = startThread(LAYOUT_THREAD_NAME);
+        }
+        return layoutHandler;
+    }
+
+    /**
+     * The handler of the thread on which cancelled connections are closed. The worker thread cannot be used, as it may
+     * be blocked on the very connection being closed.
+     */
+    private static synchronized Handler closeHandler() {
+        if (closeHandler == null) {
+            closeHandler = startThread(CLOSE_THREAD_NAME);
+        }
+        return closeHandler;
+    }
+
+    private static Handler startThread(String name) {
+        HandlerThread thread = new HandlerThread(name, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        return new Handler(thread.getLooper());
+    }
+
+    /**
+     * Work to be done on a worker thread. Once cancelled, a task which has not started is removed from the worker,
+     * and a running task should stop at its next check of isCancelled(). Streams wrapped with cancellable() fail their
+     * next read, so that parsing stops promptly, and a connection passed to closeOnCancel() is closed, so that a read
+     * blocked on the network does not hold up the tasks posted after it.
+     */
+    public static abstract class Task implements Runnable {
+
+        private volatile boolean cancelled;
+        private Closeable connection;
+        private Handler handler;
+
+        public void cancel() {
+            cancelled = true;
+            if (handler != null) {
+                handler.removeCallbacks(this);
+            }
+            final Closeable closeable;
+            synchronized (this) {
+                closeable = connection;
+                connection = null;
+            }
+            if (closeable != null) {
+                // Closing a network connection may write to it, which is not allowed on the main thread
+                closeHandler().post(new Runnable() {
+                    @Override
+                    public void run() {
+                        closeQuietly(closeable);
+                    }
+                });
+            }
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * Closes the connection once this task is cancelled, which interrupts a read or connect blocked on it. Should
+         * be called from the task on the worker thread.
+         *
+         * @throws InterruptedIOException if the task is already cancelled, in which case the connection is closed
+         */
+        protected void closeOnCancel(Closeable connection) throws InterruptedIOException {
+            synchronized (this) {
+                if (!cancelled) {
+                    this.connection = connection;
+                    return;
+                }
+            }
+            closeQuietly(connection);
+            throw new InterruptedIOException("Cancelled");
+        }
+
+        /** @return a stream which throws an InterruptedIOException when read once this task is cancelled */
+        protected InputStream cancellable(InputStream is) {
+            return new FilterInputStream(is) {
+                @Override
+                public int read() throws IOException {
+                    checkCancelled();
+                    return super.read();
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int count) throws IOException {
+                    checkCancelled();
+                    return super.read(buffer, offset, count);
+                }
+
+                private void checkCancelled() throws InterruptedIOException {
+                    if (cancelled) {
+                        throw new InterruptedIOException("Cancelled");
+                    }
+                }
+            };
+        }
+
+        private static void closeQuietly(Closeable closeable) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                CaptionLogger.w("CaptionWorker.Task IOException on closing connection", e);
+            }
+        }
+    }
+}
@@ -1,17 +1,22 @@
 package com.flixster.android.captioning;
 
+import java.io.BufferedInputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import java.util.Collections;
 import java.util.List;
 
 import android.os.Handler;
 import android.os.Message;
+import android.os.SystemClock;
 import android.support.v4.app.FragmentActivity;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+import android.text.TextUtils;
 import android.util.DisplayMetrics;
 import android.view.View;
 import android.view.ViewGroup.MarginLayoutParams;
@@ -26,20 +31,71 @@ public class CaptionedPlayer extends FragmentActivity {
     protected static final int NOTIFY_FETCH_CREATE_STREAM_FAILED = 1;
     protected static final int NOTIFY_FETCH_IO_EXCEPTION = 2;
     protected static final int NOTIFY_FETCH_DISABLED = 3;
+    protected static final int NOTIFY_FETCH_FIRST_CAPTIONS = 4;
+
+    protected static final int PLAYER_STATE_UNKNOWN = 0;
+    protected static final int PLAYER_STATE_PLAYING = 1;
+    protected static final int PLAYER_STATE_PAUSED = 2;
+    protected static final int PLAYER_STATE_BUFFERING = 3;
+    protected static final int PLAYER_STATE_COMPLETED = 4;
 
     private static final String FILE_PROTOCOL = "file://";
-    private static final int CAPTION_MONITOR_INTERVAL_MS = 300;
+    private static final int CAPTION_UPDATE = 0;
+    private static final int CAPTION_FRAME_SYNC = 1;
+    private static final int CAPTION_RESYNC_INTERVAL_MS = 1000;
+    private static final int CAPTION_MIN_DELAY_MS = 10;
+    /** How long before a caption change the position is sampled, to be extrapolated on each frame until the change */
+    private static final int FRAME_SYNC_LEAD_MS = 50;
+    private static final long DEFAULT_FRAME_INTERVAL_NANOS = 16666667;
     private static final int TIMEOUT_CONNECTION = 4000;
     private static final int TIMEOUT_READ = 60000;
+    private static final int FETCH_BATCH_SIZE = 25;
+    private static final int FETCH_BATCH_RECEIVED = 100;
+    private static final int PRELAYOUT_LOOKAHEAD = 4;
 
     private boolean captionsActive = false;
-    private boolean threadActive = false;
+    private boolean activityResumed = false;
+    private int playerState = PLAYER_STATE_UNKNOWN;
     private VideoView videoview;
+    private PlaybackClock clock;
     private CaptionView[] captionViews;
-    private List<TimedTextElement> captions;
+    private CaptionTimeline timeline;
+    private CaptionTrack captions;
     private String captionUrl;
+    private boolean parallelParsing = false;
+    private VersionedFrameHelper frameHelper;
+    private CaptionBitmapCache bitmapCache;
+
+    // Layouts of the upcoming captions, prepared in the background
+    private final CaptionLayoutPrefetcher layoutPrefetcher = new CaptionLayoutPrefetcher(PRELAYOUT_LOOKAHEAD);
+    private final int[] upcomingIndices = new int[PRELAYOUT_LOOKAHEAD];
+    private final CharSequence[] upcomingTexts = new CharSequence[PRELAYOUT_LOOKAHEAD];
+    private final int[] upcomingWidths = new int[PRELAYOUT_LOOKAHEAD];
+    private final TextPaint[] upcomingPaints = new TextPaint[PRELAYOUT_LOOKAHEAD];
+    // The captions and style of the last prefetch, whose widths are still held by upcomingWidths
+    private final int[] prefetchedIndices = new int[PRELAYOUT_LOOKAHEAD];
+    private int prefetchedCount;
+    private CaptionTrack prefetchedTrack;
+    private int prefetchedStyleVersion;
+
+    // Frame-synchronized updates: the pending caption change, the sampled position and the measured frame offsets
+    private int pendingBoundary;
+    private int sampledPosition;
+    private long sampledNanos;
+    private long lastFrameNanos;
+    private long frameIntervalNanos = DEFAULT_FRAME_INTERVAL_NANOS;
+    private int frameSyncCount;
+    private long frameSyncOffsetSum;
+    private int frameSyncMaxOffset;
     private DisplayMetrics outMetrics;
     private Handler notifyHandler;
+    private CaptionWorker.Task fetchTask;
+    // Sent with the messages of a fetch, and incremented when it is cancelled, so that its late messages are dropped
+    private int fetchGeneration;
+
+    // The number of times the main thread was woken to update captions, since wakeupsSince
+    private int wakeups;
+    private long wakeupsSince;
 
     /**
      * Initializes the provided CaptionViews and prepares to fetch the captions from the url. Should be called within
@@ -49,13 +105,20 @@ public class CaptionedPlayer extends FragmentActivity {
      *            captions are synced to the video.
      * @param cvs - The array of CaptionsViews which will used to display the caption text. Position of the CaptionView
      *            will correspond to the region of the TimedTextElement when determining where to display the text.
-     * @param url - The file path or url from which the captions will be fetched. Captions must be in SMPTE-TT/TTML
-     *            format.
+     * @param url - The file path or url from which the captions will be fetched. Captions must be in SMPTE-TT/TTML,
+     *            WebVTT or SRT format.
      */
     protected void prepareCaptions(VideoView vv, CaptionView[] cvs, String url) {
         videoview = vv;
+        clock = new VideoViewPlaybackClock(vv);
         captionViews = cvs;
+        for (CaptionView cv : captionViews) {
+            cv.setBitmapCache(bitmapCache);
+        }
+        timeline = new CaptionTimeline(cvs.length, timelineListener);
         captionUrl = url;
+        wakeups = 0;
+        wakeupsSince = SystemClock.elapsedRealtime();
 
         outMetrics = new DisplayMetrics();
         getWindowManager().getDefaultDisplay().getMetrics(outMetrics);
@@ -67,14 +130,17 @@ public class CaptionedPlayer extends FragmentActivity {
                     cv.applyPreferences();
                     cv.setVisibility(View.INVISIBLE);
                 }
-                fetchCaptions(successHandler, errorHandler, captionUrl);
+                captions = null;
+                layoutPrefetcher.clear();
+                cancelFetch();
+                fetchTask = fetchCaptions(successHandler, errorHandler, captionUrl, parallelParsing, fetchGeneration);
             } else {
                 CaptionLogger.d("CaptionedPlayer.prepareCaptions caption url is empty");
-                errorHandler.sendEmptyMessage(NOTIFY_FETCH_CREATE_STREAM_FAILED);
+                sendFetchMessage(errorHandler, NOTIFY_FETCH_CREATE_STREAM_FAILED, fetchGeneration, null);
             }
         } else {
             CaptionLogger.d("CaptionedPlayer.prepareCaptions captions are currently disabled");
-            errorHandler.sendEmptyMessage(NOTIFY_FETCH_DISABLED);
+            sendFetchMessage(errorHandler, NOTIFY_FETCH_DISABLED, fetchGeneration, null);
         }
     }
 
@@ -83,6 +149,10 @@ public class CaptionedPlayer extends FragmentActivity {
      * captions, an empty message will be passed to the Handler, with the "what" attribute containing the message, as
      * one of the NOTIFY_FETCH variables.
      * 
+     * Captions are streamed in while the file is being parsed. NOTIFY_FETCH_FIRST_CAPTIONS is sent as soon as the first
+     * captions are available, at which point rollCaptions() may be called; the remaining captions are added to the
+     * running display as they arrive, and NOTIFY_FETCH_SUCCESS is sent once the whole file has been read.
+     * 
      * Otherwise identical to the other prepareCaptions() method
      */
     protected void prepareCaptions(VideoView vv, CaptionView[] cvs, String url, Handler notificationHanlder) {
@@ -91,110 +161,485 @@ public class CaptionedPlayer extends FragmentActivity {
     }
 
     /**
-     * Initiates the thread which updates captions. Will continue to run until stopped by stopCaptions().
+     * Enables parsing very large local SMPTE-TT/TTML files in chunks on several threads. The whole file is read before
+     * any captions are displayed, so this should only be used when the file is too large to parse quickly on one
+     * thread. Must be called before prepareCaptions(). Disabled by default.
+     */
+    protected void setParallelParsing(boolean parallel) {
+        parallelParsing = parallel;
+    }
+
+    /**
+     * Applies caption changes on the display frame nearest the time at which they are due, rather than whenever the
+     * main thread gets to them. Shortly before each change the playback position is sampled, and then extrapolated to
+     * the time of each frame until the change is reached. Requires Android 4.1+, and has no effect on older versions.
+     * Disabled by default.
+     */
+    protected void setFrameSyncedCaptions(boolean frameSynced) {
+        cancelUpdates();
+        frameHelper = frameSynced ? VersionedFrameHelper.create(frameListener) : null;
+        notifyPlaybackChanged();
+    }
+
+    /**
+     * Draws captions with an outline or shadow from Bitmaps rasterized once per caption, rather than drawing their text
+     * and edges on every frame, which is costly on low-end devices. The Bitmaps are kept in a cache bounded by their
+     * total size in bytes, which is discarded when the caption preferences change or memory runs low. Must be called
+     * before prepareCaptions(). Disabled by default.
+     * 
+     * @param maxBytes - The maximum total size of the cached Bitmaps, or 0 to disable rasterizing
+     */
+    protected void setCaptionBitmapCacheSize(int maxBytes) {
+        if (bitmapCache != null) {
+            bitmapCache.clear();
+        }
+        bitmapCache = maxBytes > 0 ? new CaptionBitmapCache(maxBytes) : null;
+    }
+
+    /** @return the fraction of rasterized captions found in the cache, between 0 and 1, or 0 if not rasterizing */
+    protected float getCaptionBitmapHitRate() {
+        return bitmapCache != null ? bitmapCache.getHitRate() : 0;
+    }
+
+    /** @return the total size in bytes of the cached rasterized captions */
+    protected int getCaptionBitmapCacheBytes() {
+        return bitmapCache != null ? bitmapCache.getSizeBytes() : 0;
+    }
+
+    /**
+     * @return the mean difference in milliseconds between the extrapolated playback position at the frames on which
+     *         frame-synchronized captions changed and the times at which the changes were due, or 0 if there were none.
+     *         Should stay well below the frame interval.
+     */
+    protected float getFrameSyncMeanOffsetMs() {
+        return frameSyncCount > 0 ? frameSyncOffsetSum / (float) frameSyncCount : 0;
+    }
+
+    /** @return the number of captions displayed with a layout prepared in the background */
+    protected int getPreparedLayoutHits() {
+        return layoutPrefetcher.getHits();
+    }
+
+    /** @return the number of captions whose text had to be laid out for drawing on the main thread when displayed */
+    protected int getPreparedLayoutMisses() {
+        return layoutPrefetcher.getMisses();
+    }
+
+    /** @return the greatest difference measured by getFrameSyncMeanOffsetMs() */
+    protected int getFrameSyncMaxOffsetMs() {
+        return frameSyncMaxOffset;
+    }
+
+    /**
+     * Starts updating captions. Will continue until stopped by stopCaptions(). Captions are updated on the main thread
+     * at the next time at which a caption begins or ends, rather than at a fixed interval.
      */
     protected void rollCaptions() {
         if (CaptionPreferences.instance().getCaptionsEnabled() && captionUrl != null && !captionUrl.equals("")) {
             captionsActive = true;
-            for (CaptionView cv : captionViews) {
-                cv.setVisibility(View.INVISIBLE);
-            }
-
-            if (!threadActive) {
-                Thread captionMonitorThread = new Thread(new Runnable() {
-                    @Override
-                    public void run() {
-                        threadActive = true;
-                        while (captionsActive) {
-                            captionHandler.sendEmptyMessage(0);
-                            try {
-                                Thread.sleep(CAPTION_MONITOR_INTERVAL_MS);
-                            } catch (InterruptedException e) {
-                                e.printStackTrace();
-                            }
-                        }
-                        threadActive = false;
-                    }
-                });
-                captionMonitorThread.start();
+            cancelUpdates();
+            // The timeline is moved to the current position at once, so that no region shows the caption it displayed
+            // when captions were stopped, e.g. before a seek
+            clock.sync();
+            int currentPosition = clock.getPosition();
+            timeline.invalidate();
+            timeline.tick(currentPosition);
+            // The views keep the captions they display, so the timeline only updates the regions whose caption changed
+            // meanwhile, and the others are repositioned in case the preferences changed
+            for (int region = 0; region < captionViews.length; region++) {
+                int shown = timeline.getShownIndex(region);
+                if (shown >= 0) {
+                    showCaption(region, shown);
+                }
             }
+            scheduleUpdate(currentPosition);
+            prefetchLayouts(currentPosition);
             CaptionLogger.d("CaptionedPlayer.rollCaptions caption display initiated");
         }
     }
 
     /**
-     * Stops the thread which updates captions
+     * Stops updating captions
      */
     protected void stopCaptions() {
         captionsActive = false;
-        CaptionLogger.d("CaptionedPlayer.stopCaptions caption display stopped");
+        cancelUpdates();
+        CaptionLogger.d("CaptionedPlayer.stopCaptions caption display stopped, " + layoutPrefetcher + ", "
+                + getCaptionWakeupsPerMinute() + " wakeups per minute"
+                + (bitmapCache != null ? ", " + bitmapCache : ""));
     }
 
     /**
-     * The main logic of displaying captions. Shows the appropriate captions according to the position of the provided
-     * VideoView
+     * Updates the captions immediately and reschedules the next update. Should be called whenever the VideoView is
+     * seeked, paused or resumed, as otherwise the change is only noticed at the next scheduled update, which may be up
+     * to a second away. The PlaybackClock is synced with the player first.
      */
-    private final Handler captionHandler = new Handler() {
-        int ttIndex;
-        int currentPosition;
+    protected void notifyPlaybackChanged() {
+        if (captionsActive && activityResumed) {
+            clock.sync();
+            timeline.invalidate();
+            cancelUpdates();
+            captionHandler.sendEmptyMessage(CAPTION_UPDATE);
+        }
+    }
+
+    /**
+     * Reports a change in the state of the player, one of the PLAYER_STATE constants, and updates the captions. While
+     * the player is paused, buffering or completed, no caption update is scheduled until the state changes again. If
+     * the state is never reported, captions are still checked every second while the VideoView is paused, in case it
+     * is resumed or seeked without notifyPlaybackChanged() being called.
+     */
+    protected void setPlayerState(int state) {
+        if (state != playerState) {
+            CaptionLogger.d("CaptionedPlayer.setPlayerState " + playerState + " -> " + state);
+            playerState = state;
+        }
+        notifyPlaybackChanged();
+    }
+
+    /**
+     * @return the number of times per minute the main thread was woken to update captions since prepareCaptions(),
+     *         which drops to none while the player is idle or the Activity is in the background
+     */
+    protected float getCaptionWakeupsPerMinute() {
+        long elapsed = SystemClock.elapsedRealtime() - wakeupsSince;
+        return elapsed > 0 ? wakeups * 60000f / elapsed : 0;
+    }
+
+    /** @return the number of times the main thread was woken to update captions since prepareCaptions() */
+    protected int getCaptionWakeups() {
+        return wakeups;
+    }
+
+    /**
+     * Replaces the VideoViewPlaybackClock of the VideoView as the source of the playback position, e.g. for captions
+     * displayed alongside another player. The VideoView is still used to position the captions. Must be called after
+     * prepareCaptions().
+     */
+    protected void setPlaybackClock(PlaybackClock playbackClock) {
+        clock = playbackClock;
+        notifyPlaybackChanged();
+    }
+
+    /** Resumes updating captions, if they were rolling when the Activity was paused */
+    @Override
+    protected void onResume() {
+        super.onResume();
+        activityResumed = true;
+        notifyPlaybackChanged();
+    }
+
+    /** Stops scheduling caption updates while the Activity is in the background, without stopping the captions */
+    @Override
+    protected void onPause() {
+        activityResumed = false;
+        cancelUpdates();
+        super.onPause();
+    }
+
+    /** Discards the rasterized captions once memory runs low */
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (bitmapCache != null) {
+            bitmapCache.trimMemory(level);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        if (bitmapCache != null) {
+            bitmapCache.clear();
+        }
+    }
+
+    /** Stops updating captions and cancels any fetch still in progress, so that no work outlives the Activity */
+    @Override
+    protected void onDestroy() {
+        stopCaptions();
+        cancelFetch();
+        layoutPrefetcher.clear();
+        if (bitmapCache != null) {
+            bitmapCache.clear();
+        }
+        super.onDestroy();
+    }
+
+    /** Cancels the fetch in progress, if any, and discards the captions it has already sent or is about to send */
+    private void cancelFetch() {
+        if (fetchTask != null) {
+            fetchTask.cancel();
+            fetchTask = null;
+        }
+        fetchGeneration++;
+        successHandler.removeCallbacksAndMessages(null);
+        errorHandler.removeCallbacksAndMessages(null);
+    }
 
+    private void cancelUpdates() {
+        captionHandler.removeMessages(CAPTION_UPDATE);
+        captionHandler.removeMessages(CAPTION_FRAME_SYNC);
+        if (frameHelper != null) {
+            frameHelper.removeFrameCallback();
+        }
+    }
+
+    /**
+     * Updates the captions according to the position of the PlaybackClock, and schedules the next update. When
+     * frame-synchronized, the position is instead sampled just before the next caption change, which is then applied
+     * by the frameListener.
+     */
+    private final Handler captionHandler = new Handler() {
         @Override
         public void handleMessage(Message msg) {
-            if (captions != null) {
-                int xPos, yPos;
-                int width = videoview.getWidth();
-                int height = videoview.getHeight();
-                int textSizeOffset = CaptionView.getSizeDisplayOffset();
-                int stackedViewSpacing = CaptionView.getStackedViewSpacing();
-
-                if (videoview.getCurrentPosition() < currentPosition) {
-                    ttIndex = 0;
-                    for (int i = 0; i < captionViews.length; i++) {
-                        captionViews[i].setVisibility(View.INVISIBLE);
-                    }
+            wakeups++;
+            switch (msg.what) {
+                case CAPTION_UPDATE:
+                    int currentPosition = clock.getPosition();
+                    timeline.tick(currentPosition);
+                    scheduleUpdate(currentPosition);
+                    prefetchLayouts(currentPosition);
+                    break;
+                case CAPTION_FRAME_SYNC:
+                    clock.sync();
+                    sampledPosition = clock.getPosition();
+                    sampledNanos = System.nanoTime();
+                    lastFrameNanos = 0;
+                    frameHelper.postFrameCallback();
+                    break;
+            }
+        }
+    };
+
+    /**
+     * Applies the pending caption change on the first frame whose extrapolated position is within half a frame of it,
+     * recording how far from the change that position was
+     */
+    private final VersionedFrameHelper.FrameListener frameListener = new VersionedFrameHelper.FrameListener() {
+        @Override
+        public void onFrame(long frameTimeNanos) {
+            if (!captionsActive) {
+                return;
+            }
+            wakeups++;
+            if (lastFrameNanos > 0 && frameTimeNanos - lastFrameNanos < 2 * DEFAULT_FRAME_INTERVAL_NANOS) {
+                frameIntervalNanos = frameTimeNanos - lastFrameNanos;
+            }
+            lastFrameNanos = frameTimeNanos;
+
+            int position = sampledPosition + (int) ((frameTimeNanos - sampledNanos) / 1000000);
+            if (position + frameIntervalNanos / 2000000 < pendingBoundary) {
+                frameHelper.postFrameCallback();
+                return;
+            }
+
+            int offset = Math.abs(position - pendingBoundary);
+            frameSyncCount++;
+            frameSyncOffsetSum += offset;
+            frameSyncMaxOffset = Math.max(frameSyncMaxOffset, offset);
+
+            position = Math.max(position, pendingBoundary);
+            timeline.tick(position);
+            scheduleUpdate(position);
+            prefetchLayouts(position);
+        }
+    };
+
+    /** Applies the changes decided by the CaptionTimeline to the CaptionViews */
+    private final CaptionTimeline.Listener timelineListener = new CaptionTimeline.Listener() {
+        @Override
+        public void onShow(int region, int index) {
+            CaptionLogger.d("showing index " + index + ", text " + captions.getText(index));
+            showCaption(region, index);
+        }
+
+        @Override
+        public void onUpdate(int region, int index) {
+            CaptionLogger.d("replacing with index " + index + ", text " + captions.getText(index));
+            showCaption(region, index);
+        }
+
+        @Override
+        public void onHide(int region) {
+            CaptionLogger.d("hiding region " + region + ", text " + captionViews[region].getText());
+            if (captionViews[region].getVisibility() != View.INVISIBLE) {
+                captionViews[region].setVisibility(View.INVISIBLE);
+            }
+        }
+    };
+
+    /**
+     * Schedules the next update for the time at which the captions next change, or after CAPTION_RESYNC_INTERVAL_MS so
+     * that unreported seeks are still noticed. Nothing is scheduled while no progress is possible, i.e. the Activity
+     * is in the background or the player is reported to be paused, buffering or completed, as the next update is then
+     * triggered by onResume() or setPlayerState().
+     */
+    private void scheduleUpdate(int currentPosition) {
+        if (!captionsActive || !activityResumed) {
+            return;
+        }
+        if (playerState == PLAYER_STATE_PAUSED || playerState == PLAYER_STATE_BUFFERING
+                || playerState == PLAYER_STATE_COMPLETED) {
+            return;
+        }
+        int delay = CAPTION_RESYNC_INTERVAL_MS;
+        if (clock.isPlaying()) {
+            int nextBoundary = timeline.getNextChange();
+            if (nextBoundary >= 0) {
+                int untilBoundary = nextBoundary - currentPosition;
+                if (frameHelper != null && untilBoundary <= delay) {
+                    pendingBoundary = nextBoundary;
+                    captionHandler.sendEmptyMessageDelayed(CAPTION_FRAME_SYNC,
+                            Math.max(0, untilBoundary - FRAME_SYNC_LEAD_MS));
+                    return;
                 }
-                currentPosition = videoview.getCurrentPosition();
-                for (int i = ttIndex; i < captions.size(); i++) {
-                    TimedTextElement ttElement = captions.get(i);
-                    if (ttElement.region < captionViews.length) {
-                        if (ttElement.end <= currentPosition) {
-                            if (captionViews[ttElement.region].getVisibility() == View.VISIBLE) {
-                                captionViews[ttElement.region].setVisibility(View.INVISIBLE);
-                                CaptionLogger.d("hiding index " + i + ", text " + ttElement.text);
-                            }
-                            ttIndex++;
-                        } else if (ttElement.begin <= currentPosition) {
-                            if (captionViews[ttElement.region].getVisibility() != View.VISIBLE) {
-                                CaptionLogger.d("showing index " + i + ", text " + ttElement.text);
-                                xPos = videoview.getLeft();
-                                yPos = videoview.getTop();
-                                MarginLayoutParams cvParams = (MarginLayoutParams) captionViews[ttElement.region]
-                                        .getLayoutParams();
-                                int xOrigin = xPos + (int) (width * (ttElement.originX + textSizeOffset) / 100.0f);
-                                int yOrigin = yPos + (int) (height * (ttElement.originY + textSizeOffset) / 100.0f)
-                                        + (stackedViewSpacing * ttElement.region);
-
-                                cvParams.setMargins(xOrigin, yOrigin, 0, 5);
-                                captionViews[ttElement.region].setText(ttElement.text);
-                                captionViews[ttElement.region].setVisibility(View.VISIBLE);
-                            }
-                        } else {
-                            break;
-                        }
+                delay = Math.max(CAPTION_MIN_DELAY_MS, Math.min(delay, untilBoundary));
+            }
+        }
+        captionHandler.sendEmptyMessageDelayed(CAPTION_UPDATE, delay);
+    }
+
+    /**
+     * Positions the CaptionView of the region according to the origin of the caption, and displays its text using the
+     * layout prepared in the background if there is one. Only what differs from the caption previously displayed by
+     * the view is changed, so that e.g. consecutive captions with the same text and origin cause no layout or redraw.
+     */
+    private void showCaption(int region, int index) {
+        CaptionView cv = captionViews[region];
+        int height = videoview.getHeight();
+        int textSizeOffset = CaptionView.getSizeDisplayOffset();
+        int stackedViewSpacing = CaptionView.getStackedViewSpacing();
+
+        MarginLayoutParams cvParams = (MarginLayoutParams) cv.getLayoutParams();
+        int xOrigin = getCaptionLeftMargin(index);
+        int yOrigin = videoview.getTop() + (int) (height * (captions.getOriginY(index) + textSizeOffset) / 100.0f)
+                + (stackedViewSpacing * region);
+
+        boolean moved = cvParams.leftMargin != xOrigin || cvParams.topMargin != yOrigin;
+        if (moved) {
+            cvParams.setMargins(xOrigin, yOrigin, 0, 5);
+        }
+        String text = captions.getText(index);
+        if (!TextUtils.equals(text, cv.getText())) {
+            StaticLayout layout = null;
+            if (text != null) {
+                layout = layoutPrefetcher.take(text, getCaptionTextWidth(region, index), cv.getPaint());
+            }
+            cv.setCaptionText(text, layout);
+        } else if (moved) {
+            cv.requestLayout();
+        }
+        if (cv.getVisibility() != View.VISIBLE) {
+            cv.setVisibility(View.VISIBLE);
+        }
+    }
+
+    /** @return the left margin of a CaptionView displaying the caption */
+    private int getCaptionLeftMargin(int index) {
+        int textSizeOffset = CaptionView.getSizeDisplayOffset();
+        int width = videoview.getWidth();
+        return videoview.getLeft() + (int) (width * (captions.getOriginX(index) + textSizeOffset) / 100.0f);
+    }
+
+    /** @return the width available to the text of the caption in the CaptionView of its region, or 0 if unknown */
+    private int getCaptionTextWidth(int region, int index) {
+        View parent = (View) captionViews[region].getParent();
+        if (parent == null || parent.getWidth() == 0) {
+            return 0;
+        }
+        int viewWidth = parent.getWidth() - parent.getPaddingLeft() - parent.getPaddingRight()
+                - getCaptionLeftMargin(index);
+        return Math.max(0, captionViews[region].getTextWidth(viewWidth));
+    }
+
+    /**
+     * Lays out the text of the next captions in the background, at the width they will have once displayed. Nothing is
+     * allocated unless the next captions, their widths or the style have changed since the last prefetch.
+     */
+    private void prefetchLayouts(int currentPosition) {
+        if (captions == null) {
+            return;
+        }
+        int styleVersion = CaptionPreferences.instance().getStyle().getVersion();
+        boolean changed = captions != prefetchedTrack || styleVersion != prefetchedStyleVersion;
+        int count = 0;
+        int firstRegion = 0;
+        int upcomingCount = captions.findNext(currentPosition, upcomingIndices);
+        for (int j = 0; j < upcomingCount; j++) {
+            int index = upcomingIndices[j];
+            int region = captions.getRegion(index);
+            String text = captions.getText(index);
+            if (region < captionViews.length && text != null) {
+                int width = getCaptionTextWidth(region, index);
+                if (width > 0) {
+                    changed |= count >= prefetchedCount || prefetchedIndices[count] != index
+                            || upcomingWidths[count] != width;
+                    if (count == 0) {
+                        firstRegion = region;
                     }
+                    prefetchedIndices[count] = index;
+                    upcomingTexts[count] = text;
+                    upcomingWidths[count] = width;
+                    count++;
                 }
             }
         }
-    };
+        changed |= count != prefetchedCount;
+        prefetchedCount = count;
+        prefetchedTrack = captions;
+        prefetchedStyleVersion = styleVersion;
+        if (changed && count > 0) {
+            TextPaint paint = captionViews[firstRegion].newLayoutPaint();
+            for (int j = 0; j < count; j++) {
+                upcomingPaints[j] = paint;
+            }
+            layoutPrefetcher.prefetch(upcomingTexts, upcomingWidths, upcomingPaints, count);
+        }
+    }
 
-    /** Called upon the success of fetchCaptions(), and initiates the display of captions */
+    /**
+     * Called with each batch of captions parsed by fetchCaptions(), and upon its success. Batches are appended to the
+     * captions already being displayed.
+     */
     private final Handler successHandler = new Handler() {
         @Override
         @SuppressWarnings("unchecked")
         public void handleMessage(Message msg) {
-            captions = (List<TimedTextElement>) msg.obj;
-            CaptionLogger.d("CaptionedPlayer.successHandler fetch captions succeeded");
-            CaptionedPlayer.this.notify(msg.what);
+            if (msg.arg1 != fetchGeneration) {
+                // Sent by a cancelled fetch after its messages were removed
+                return;
+            }
+            switch (msg.what) {
+                case FETCH_BATCH_RECEIVED:
+                    boolean firstBatch = captions == null;
+                    if (msg.obj instanceof CaptionTrack) {
+                        captions = (CaptionTrack) msg.obj;
+                    } else {
+                        if (firstBatch) {
+                            captions = new CaptionTrack();
+                        }
+                        captions.addAll((List<TimedTextElement>) msg.obj);
+                    }
+                    timeline.setTrack(captions);
+                    if (firstBatch) {
+                        CaptionLogger.d("CaptionedPlayer.successHandler first captions received");
+                        CaptionedPlayer.this.notify(NOTIFY_FETCH_FIRST_CAPTIONS);
+                    }
+                    // The new captions may change sooner than the update already scheduled
+                    notifyPlaybackChanged();
+                    break;
+                case NOTIFY_FETCH_SUCCESS:
+                    if (captions == null) {
+                        captions = new CaptionTrack();
+                        timeline.setTrack(captions);
+                    }
+                    captions.complete();
+                    CaptionLogger.d("CaptionedPlayer.successHandler fetch captions succeeded, " + captions.size()
+                            + " captions");
+                    CaptionedPlayer.this.notify(msg.what);
+                    break;
+            }
         }
     };
 
@@ -202,46 +647,112 @@ public class CaptionedPlayer extends FragmentActivity {
     private final Handler errorHandler = new Handler() {
         @Override
         public void handleMessage(Message msg) {
+            if (msg.arg1 != fetchGeneration) {
+                return;
+            }
             CaptionLogger.d("CaptionedPlayer.errorHandler fetch captions failed");
             CaptionedPlayer.this.notify(msg.what);
         }
     };
 
+    /** Sends a message of the fetch of the generation, which the handlers drop once the fetch is cancelled */
+    private static void sendFetchMessage(Handler handler, int what, int generation, Object obj) {
+        handler.sendMessage(Message.obtain(null, what, generation, 0, obj));
+    }
+
     private void notify(int message) {
         if (notifyHandler != null) {
             notifyHandler.sendEmptyMessage(message);
         }
     }
 
-    /** Parses the captions provided through the urlString, and notifies of success or failure */
-    private static void fetchCaptions(final Handler successHandler, final Handler errorHandler, final String urlString) {
+    /**
+     * Parses the captions provided through the urlString, passing them to the successHandler in batches as they are
+     * read, and notifies of success or failure. Local SMPTE-TT/TTML files are compiled into the CaptionsBinaryFormat
+     * after their first parse, and later loaded from the compiled file instead. The work is done on the CaptionWorker
+     * thread, and once the returned task is cancelled it stops parsing and sending to the handlers. Its messages carry
+     * the generation in arg1, so that any sent as it is cancelled are recognized as stale.
+     */
+    private static CaptionWorker.Task fetchCaptions(final Handler successHandler, final Handler errorHandler,
+            final String urlString, final boolean parallelParsing, final int generation) {
         CaptionLogger.d("CaptionedPlayer.fetchCaptions " + urlString);
-        new Thread(new Runnable() {
+        return CaptionWorker.post(new CaptionWorker.Task() {
             @Override
             public void run() {
                 InputStream is = null;
+                File file = null;
+                File compiledFile = null;
                 try {
                     if (urlString.startsWith(FILE_PROTOCOL)) {
-                        File file = new File(urlString.replace(FILE_PROTOCOL, ""));
+                        file = new File(urlString.replace(FILE_PROTOCOL, ""));
+                        compiledFile = CaptionsBinaryFormat.compiledFileFor(file);
+                        if (compiledFile != null) {
+                            CaptionTrack track = CaptionsBinaryFormat.read(compiledFile, file);
+                            if (track != null && !isCancelled()) {
+                                sendFetchMessage(successHandler, FETCH_BATCH_RECEIVED, generation, track);
+                                sendFetchMessage(successHandler, NOTIFY_FETCH_SUCCESS, generation, null);
+                                return;
+                            }
+                        }
                         is = new FileInputStream(file);
                     } else {
-                        HttpURLConnection connection = (HttpURLConnection) (new URL(urlString)).openConnection();
+                        final HttpURLConnection connection = (HttpURLConnection) (new URL(urlString))
+                                .openConnection();
+                        closeOnCancel(new Closeable() {
+                            @Override
+                            public void close() {
+                                connection.disconnect();
+                            }
+                        });
                         connection.setConnectTimeout(TIMEOUT_CONNECTION);
                         connection.setReadTimeout(TIMEOUT_READ);
                         connection.connect();
                         is = connection.getInputStream();
                     }
                     if (is != null) {
-                        CaptionsXmlParser parser = new CaptionsXmlParser();
-                        List<TimedTextElement> ttElements = parser.parse(is);
-                        successHandler.sendMessage(Message.obtain(null, NOTIFY_FETCH_SUCCESS,
-                                Collections.unmodifiableList(ttElements)));
+                        final CaptionTrack compiled = compiledFile != null ? new CaptionTrack() : null;
+                        CaptionSink sink = new CaptionSink() {
+                            @Override
+                            public void onCaptions(List<TimedTextElement> batch) {
+                                if (isCancelled()) {
+                                    return;
+                                }
+                                sendFetchMessage(successHandler, FETCH_BATCH_RECEIVED, generation, batch);
+                                if (compiled != null) {
+                                    compiled.addAll(batch);
+                                }
+                            }
+                        };
+                        is = new BufferedInputStream(cancellable(is));
+                        CaptionFormat format = CaptionFormat.detect(is);
+                        CaptionLogger.d("CaptionedPlayer.fetchCaptions format " + format);
+                        CaptionFormatParser parser;
+                        if (format == CaptionFormat.TTML && parallelParsing && file != null) {
+                            parser = new ParallelCaptionsXmlParser();
+                        } else {
+                            parser = format.newParser();
+                        }
+                        boolean parsed = parser.parse(is, sink, FETCH_BATCH_SIZE);
+                        if (isCancelled()) {
+                            CaptionLogger.d("CaptionedPlayer.fetchCaptions cancelled");
+                        } else if (parsed) {
+                            sendFetchMessage(successHandler, NOTIFY_FETCH_SUCCESS, generation, null);
+                            if (compiled != null && parser.isComplete()) {
+                                CaptionsBinaryFormat.write(compiledFile, file, compiled);
+                            }
+                        } else {
+                            sendFetchMessage(errorHandler, NOTIFY_FETCH_IO_EXCEPTION, generation, null);
+                            CaptionLogger.w("CaptionedPlayer.fetchCaptions unable to create parser");
+                        }
                     } else {
-                        errorHandler.sendEmptyMessage(NOTIFY_FETCH_CREATE_STREAM_FAILED);
+                        sendFetchMessage(errorHandler, NOTIFY_FETCH_CREATE_STREAM_FAILED, generation, null);
                         CaptionLogger.w("CaptionedPlayer.fetchCaptions InputStream null");
                     }
                 } catch (IOException e) {
-                    errorHandler.sendEmptyMessage(NOTIFY_FETCH_IO_EXCEPTION);
+                    if (isCancelled()) {
+                        return;
+                    }
+                    sendFetchMessage(errorHandler, NOTIFY_FETCH_IO_EXCEPTION, generation, null);
                     CaptionLogger.w("CaptionPlayer.fetchCaptions IOException on accessing InputStream", e);
                 } finally {
                     if (is != null) {
@@ -253,6 +764,6 @@ public class CaptionedPlayer extends FragmentActivity {
                     }
                 }
             }
-        }).start();
+        });
     }
 }
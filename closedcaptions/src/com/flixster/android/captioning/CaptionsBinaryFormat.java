@@ -0,0 +1,237 @@
+package com.flixster.android.captioning;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads and writes parsed caption tracks in a compact binary format, so that a track only needs to go through the
+ * CaptionsXmlParser once. Compiled files are stored next to their source with the COMPILED_FILE_EXTENSION, and are
+ * memory-mapped when read.
+ *
+ * Layout, all values big-endian:
+ *
+ * <pre>
+ * int    magic "CCBN"
+ * int    version
+ * long   source file length
+ * long   source file last modified time
+ * int    caption count (n)
+ * int    text count (m)
+ * int    text blob length in bytes
+ * int[n] begin, int[n] end, int[n] region, int[n] originX, int[n] originY
+ * int[n] text id of each caption, or -1 for a caption without text
+ * int[m + 1] offsets of each text within the text blob
+ * byte[] text blob, UTF-8
+ * </pre>
+ *
+ * Each distinct text is stored once, so captions which repeat a line share its bytes, and read back sharing a single
+ * String as they do in the CaptionTrack's text pool.
+ */
+public class CaptionsBinaryFormat {
+    public static final String COMPILED_FILE_EXTENSION = ".ccbin";
+
+    private static final int MAGIC = 0x4343424E; // "CCBN"
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 36;
+    private static final int NO_TEXT = -1;
+    private static final String CHARSET = "UTF-8";
+
+    /**
+     * @param source - A local SMPTE-TT/TTML file
+     * @return the location of the compiled file for the source, or null if the source is not a TimedTextElement
+     *         LOCAL_FILE_EXTENSION file
+     */
+    public static File compiledFileFor(File source) {
+        String path = source.getPath();
+        if (!path.endsWith(TimedTextElement.LOCAL_FILE_EXTENSION)) {
+            return null;
+        }
+        return new File(path.substring(0, path.length() - TimedTextElement.LOCAL_FILE_EXTENSION.length())
+                + COMPILED_FILE_EXTENSION);
+    }
+
+    /**
+     * Writes the captions of the track to the compiled file. The file is written under a temporary name and renamed
+     * once complete, so readers never see a partial file.
+     *
+     * @param compiled - The file to write
+     * @param source - The file the captions were parsed from, recorded so that stale compiled files are ignored
+     * @return true if the file was written successfully
+     */
+    public static boolean write(File compiled, File source, CaptionTrack track) {
+        int count = track.size();
+        int poolSize = track.getTextPoolSize();
+        // The pool may hold null, which is written as NO_TEXT rather than as an entry of the table
+        int[] compiledTextIds = new int[poolSize];
+        byte[][] texts = new byte[poolSize][];
+        int[] offsets = new int[poolSize + 1];
+        int textCount = 0;
+        try {
+            for (int id = 0; id < poolSize; id++) {
+                String text = track.getPooledText(id);
+                if (text == null) {
+                    compiledTextIds[id] = NO_TEXT;
+                    continue;
+                }
+                texts[textCount] = text.getBytes(CHARSET);
+                offsets[textCount + 1] = offsets[textCount] + texts[textCount].length;
+                compiledTextIds[id] = textCount++;
+            }
+        } catch (UnsupportedEncodingException e) {
+            CaptionLogger.w("CaptionsBinaryFormat.write", e);
+            return false;
+        }
+
+        File temp = new File(compiled.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(source.length());
+            out.writeLong(source.lastModified());
+            out.writeInt(count);
+            out.writeInt(textCount);
+            out.writeInt(offsets[textCount]);
+            for (int i = 0; i < count; i++) {
+                out.writeInt(track.getBegin(i));
+            }
+            for (int i = 0; i < count; i++) {
+                out.writeInt(track.getEnd(i));
+            }
+            for (int i = 0; i < count; i++) {
+                out.writeInt(track.getRegion(i));
+            }
+            for (int i = 0; i < count; i++) {
+                out.writeInt(track.getOriginX(i));
+            }
+            for (int i = 0; i < count; i++) {
+                out.writeInt(track.getOriginY(i));
+            }
+            for (int i = 0; i < count; i++) {
+                out.writeInt(compiledTextIds[track.getTextId(i)]);
+            }
+            for (int id = 0; id <= textCount; id++) {
+                out.writeInt(offsets[id]);
+            }
+            for (int id = 0; id < textCount; id++) {
+                out.write(texts[id]);
+            }
+            out.close();
+            out = null;
+            if (!temp.renameTo(compiled)) {
+                CaptionLogger.w("CaptionsBinaryFormat.write unable to rename " + temp);
+                temp.delete();
+                return false;
+            }
+            CaptionLogger.d("CaptionsBinaryFormat.write " + count + " captions to " + compiled);
+            return true;
+        } catch (IOException e) {
+            CaptionLogger.w("CaptionsBinaryFormat.write IOException on writing " + compiled, e);
+            temp.delete();
+            return false;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    CaptionLogger.w("CaptionsBinaryFormat.write IOException on closing OutputStream", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Memory-maps the compiled file and reads back its captions.
+     *
+     * @param compiled - The file to read
+     * @param source - The file the compiled file was created from
+     * @return the track, or null if the compiled file is missing, unreadable, of another version, or out of date with
+     *         the source
+     */
+    public static CaptionTrack read(File compiled, File source) {
+        if (!compiled.isFile()) {
+            return null;
+        }
+        FileInputStream fis = null;
+        try {
+            fis = new FileInputStream(compiled);
+            FileChannel channel = fis.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                CaptionLogger.d("CaptionsBinaryFormat.read unsupported file " + compiled);
+                return null;
+            }
+            if (buffer.getLong() != source.length() || buffer.getLong() != source.lastModified()) {
+                CaptionLogger.d("CaptionsBinaryFormat.read " + compiled + " is out of date");
+                return null;
+            }
+            int count = buffer.getInt();
+            int textCount = buffer.getInt();
+            int textLength = buffer.getInt();
+            if (count < 0 || textCount < 0 || textLength < 0
+                    || (long) HEADER_SIZE + (6l * count + textCount + 1) * 4 + textLength != buffer.capacity()) {
+                CaptionLogger.w("CaptionsBinaryFormat.read corrupt file " + compiled);
+                return null;
+            }
+
+            IntBuffer ints = buffer.asIntBuffer();
+            int[] begin = new int[count];
+            int[] end = new int[count];
+            int[] region = new int[count];
+            int[] originX = new int[count];
+            int[] originY = new int[count];
+            int[] textIds = new int[count];
+            int[] offsets = new int[textCount + 1];
+            ints.get(begin);
+            ints.get(end);
+            ints.get(region);
+            ints.get(originX);
+            ints.get(originY);
+            ints.get(textIds);
+            ints.get(offsets);
+
+            byte[] textBlob = new byte[textLength];
+            buffer.position(buffer.capacity() - textLength);
+            buffer.get(textBlob);
+            String[] texts = new String[textCount];
+            for (int id = 0; id < textCount; id++) {
+                texts[id] = new String(textBlob, offsets[id], offsets[id + 1] - offsets[id], CHARSET);
+            }
+
+            CaptionTrack track = new CaptionTrack(count);
+            for (int i = 0; i < count; i++) {
+                String text = textIds[i] == NO_TEXT ? null : texts[textIds[i]];
+                track.add(begin[i], end[i], region[i], originX[i], originY[i], text);
+            }
+            track.complete();
+            CaptionLogger.d("CaptionsBinaryFormat.read " + count + " captions from " + compiled);
+            return track;
+        } catch (IOException e) {
+            CaptionLogger.w("CaptionsBinaryFormat.read IOException on reading " + compiled, e);
+        } catch (BufferUnderflowException e) {
+            CaptionLogger.w("CaptionsBinaryFormat.read truncated file " + compiled, e);
+        } catch (IndexOutOfBoundsException e) {
+            CaptionLogger.w("CaptionsBinaryFormat.read corrupt text table in " + compiled, e);
+        } finally {
+            if (fis != null) {
+                try {
+                    fis.close();
+                } catch (IOException e) {
+                    CaptionLogger.w("CaptionsBinaryFormat.read IOException on closing InputStream", e);
+                }
+            }
+        }
+        return null;
+    }
+}
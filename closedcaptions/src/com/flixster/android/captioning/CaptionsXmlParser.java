@@ -2,6 +2,7 @@ package com.flixster.android.captioning;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -10,85 +11,216 @@ import org.xmlpull.v1.XmlPullParserException;
 import org.xmlpull.v1.XmlPullParserFactory;
 
 /** Class used to retrieve the data from SMPTE-TT/TTML files */
-public class CaptionsXmlParser {
+public class CaptionsXmlParser implements CaptionFormatParser {
+
+    /** Number of TimedTextElements handed to a CaptionSink at a time when streaming */
+    public static final int DEFAULT_BATCH_SIZE = 25;
+
+    /** Collects the text of the current paragraph, reused for every paragraph of the parse */
+    private final StringBuilder textBuffer = new StringBuilder(256);
+    private final int[] textRange = new int[2];
+    private boolean pendingSpace;
+    private boolean complete;
+    private TextPool textPool = new TextPool();
 
     /**
      * Fetches the data from the file inputstream and converts into a list of TimedTextElement objects which can be more
      * easily accessed
      */
     public List<TimedTextElement> parse(InputStream is) {
+        final List<TimedTextElement> ttElements = new ArrayList<TimedTextElement>();
+        CaptionSink sink = new CaptionSink() {
+            @Override
+            public void onCaptions(List<TimedTextElement> batch) {
+                ttElements.addAll(batch);
+            }
+        };
+        return parse(is, sink, DEFAULT_BATCH_SIZE) ? ttElements : null;
+    }
+
+    /**
+     * Streams the data from the file inputstream into the sink, publishing TimedTextElements in batches as soon as they
+     * are read rather than once the whole file has been parsed.
+     * 
+     * @param is - The SMPTE-TT/TTML file inputstream
+     * @param sink - Receives the TimedTextElements on the calling thread, in document order
+     * @param batchSize - The number of TimedTextElements to collect before publishing them to the sink. The final
+     *            batch may be smaller.
+     * @return false if the parser could not be created, true otherwise
+     */
+    @Override
+    public boolean parse(InputStream is, CaptionSink sink, int batchSize) {
+        complete = false;
+        textPool = new TextPool();
         try {
             XmlPullParser parser = XmlPullParserFactory.newInstance().newPullParser();
             parser.setInput(is, null);
-            return readTtml(parser);
+            readTtml(parser, sink, Math.max(1, batchSize), TimingContext.DEFAULT);
+            return true;
+        } catch (XmlPullParserException e) {
+            CaptionLogger.w("CaptionsXmlParser.parse", e);
+            return false;
+        }
+    }
+
+    /**
+     * Parses a document, or a fragment of one holding p elements wrapped in a single element, from the reader. The
+     * timing parameters already read from the document's tt element are used, unless the fragment has its own tt
+     * element. Used to parse chunks of a document in parallel.
+     */
+    boolean parse(Reader reader, TimingContext timing, CaptionSink sink, int batchSize) {
+        complete = false;
+        textPool = new TextPool();
+        try {
+            XmlPullParser parser = XmlPullParserFactory.newInstance().newPullParser();
+            parser.setInput(reader);
+            readTtml(parser, sink, Math.max(1, batchSize), timing);
+            return true;
         } catch (XmlPullParserException e) {
             CaptionLogger.w("CaptionsXmlParser.parse", e);
-            return null;
+            return false;
         }
     }
 
-    /** Does the work of retrieving the data and creating the TimedTextElements */
-    private List<TimedTextElement> readTtml(XmlPullParser parser) {
-        List<TimedTextElement> ttElements = null;
+    /** Reads the timing parameters from the attributes of a tt element the parser is positioned on */
+    static TimingContext readTimingContext(XmlPullParser parser) {
+        String dropMode = parser.getAttributeValue(null, TimedTextElement.ATTR_DROP_MODE);
+        String frameRate = parser.getAttributeValue(null, TimedTextElement.ATTR_FRAME_RATE);
+        String frameRateMultiplier = parser.getAttributeValue(null, TimedTextElement.ATTR_FRAME_RATE_MULTIPLIER);
+        String subFrameRate = parser.getAttributeValue(null, TimedTextElement.ATTR_SUB_FRAME_RATE);
+        String tickRate = parser.getAttributeValue(null, TimedTextElement.ATTR_TICK_RATE);
+        if (CaptionLogger.inDebugMode()) {
+            CaptionLogger.d("CaptionsXmlParser.readTimingContext: dropMode " + dropMode + ", frameRate " + frameRate
+                    + ", frameRateMultiplier " + frameRateMultiplier + ", subFrameRate " + subFrameRate
+                    + ", tickRate " + tickRate);
+        }
+        return TimingContext.create(dropMode, frameRate, frameRateMultiplier, subFrameRate, tickRate);
+    }
+
+    /** @return true if the last parse read the whole document, false if it stopped early on an error */
+    @Override
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * @return the pool which deduplicated the caption texts and attribute values of the last parse, for reporting how
+     *         much memory it saved
+     */
+    @Override
+    public TextPool getTextPool() {
+        return textPool;
+    }
+
+    /**
+     * Does the work of retrieving the data and publishing the TimedTextElements to the sink. The timing parameters are
+     * replaced by those of the tt element, if one is read.
+     */
+    private void readTtml(XmlPullParser parser, CaptionSink sink, int batchSize, TimingContext timing) {
+        List<TimedTextElement> ttElements = new ArrayList<TimedTextElement>(batchSize);
         try {
-            String dropMode = null, frameRate = null, frameRateMultiplier = null;
-            String begin = null, end = null, origin = null, text = null;
+            String begin = null, end = null, origin = null;
+            String parsedOrigin = null;
+            int[] originVals = TimedTextElement.parseOrigin(null);
+            boolean inParagraph = false;
             int region = 0;
             int eventType = parser.getEventType();
             while (eventType != XmlPullParser.END_DOCUMENT) {
                 switch (eventType) {
-                    case XmlPullParser.START_DOCUMENT:
-                        ttElements = new ArrayList<TimedTextElement>();
-                        break;
                     case XmlPullParser.START_TAG:
                         String tagName = parser.getName();
                         if (tagName.equals(TimedTextElement.TAG_TT)) {
-                            dropMode = parser.getAttributeValue(null, TimedTextElement.ATTR_DROP_MODE);
-                            frameRate = parser.getAttributeValue(null, TimedTextElement.ATTR_FRAME_RATE);
-                            frameRateMultiplier = parser.getAttributeValue(null,
-                                    TimedTextElement.ATTR_FRAME_RATE_MULTIPLIER);
-                            CaptionLogger.d("CaptionsXmlParser.readTtml: dropMode " + dropMode + ", frameRate "
-                                    + frameRate + ", frameRateMultiplier " + frameRateMultiplier);
+                            timing = readTimingContext(parser);
                         } else if (tagName.equals(TimedTextElement.TAG_P)) {
-                            String newBegin = parser.getAttributeValue(null, TimedTextElement.ATTR_BEGIN);
-                            if (newBegin.equals(begin)) {
+                            String newBegin = textPool.intern(parser.getAttributeValue(null,
+                                    TimedTextElement.ATTR_BEGIN));
+                            if (newBegin == begin) {
                                 region++;
                             } else {
                                 region = 0;
                             }
                             begin = newBegin;
-                            end = parser.getAttributeValue(null, TimedTextElement.ATTR_END);
-                            origin = parser.getAttributeValue(null, TimedTextElement.ATTR_ORIGIN);
-                            text = null;
-                        } else if (tagName.equals(TimedTextElement.TAG_BR)) {
-                            text = text + '\n';
+                            end = textPool.intern(parser.getAttributeValue(null, TimedTextElement.ATTR_END));
+                            origin = textPool.intern(parser.getAttributeValue(null, TimedTextElement.ATTR_ORIGIN));
+                            textBuffer.setLength(0);
+                            pendingSpace = false;
+                            inParagraph = true;
+                        } else if (tagName.equals(TimedTextElement.TAG_BR) && inParagraph) {
+                            // Line breaks before any text would only add empty lines
+                            if (textBuffer.length() > 0) {
+                                textBuffer.append('\n');
+                            }
+                            pendingSpace = false;
                         }
                         break;
                     case XmlPullParser.TEXT:
-                        if (!parser.isWhitespace()) {
-                            String nextText = parser.getText();
-                            if (text == null) {
-                                text = nextText;
-                            } else {
-                                text = text + nextText;
-                            }
+                        if (inParagraph) {
+                            appendText(parser);
                         }
                         break;
                     case XmlPullParser.END_TAG:
                         tagName = parser.getName();
                         if (tagName.equals(TimedTextElement.TAG_P)) {
-                            ttElements.add(new TimedTextElement(begin, end, region, origin, text, dropMode, frameRate,
-                                    frameRateMultiplier));
+                            int length = textBuffer.length();
+                            while (length > 0 && textBuffer.charAt(length - 1) == '\n') {
+                                length--;
+                            }
+                            textBuffer.setLength(length);
+                            String text = textBuffer.length() > 0 ? textPool.intern(textBuffer) : null;
+                            inParagraph = false;
+                            if (origin != parsedOrigin) {
+                                // Pooled origins repeat, so they are only converted when they change
+                                originVals = TimedTextElement.parseOrigin(origin);
+                                parsedOrigin = origin;
+                            }
+                            ttElements.add(new TimedTextElement(timing.toMillis(begin), timing.toMillis(end), region,
+                                    originVals[0], originVals[1], text));
+                            if (ttElements.size() >= batchSize) {
+                                sink.onCaptions(ttElements);
+                                ttElements = new ArrayList<TimedTextElement>(batchSize);
+                            }
                         }
                         break;
                 }
                 eventType = parser.next();
             }
+            complete = true;
         } catch (XmlPullParserException e) {
             CaptionLogger.w("CaptionsXmlParser.readTtml", e);
         } catch (IOException e) {
             CaptionLogger.w("CaptionsXmlParser.readTtml", e);
         }
-        return ttElements;
+        if (!ttElements.isEmpty()) {
+            sink.onCaptions(ttElements);
+        }
+        if (CaptionLogger.inDebugMode()) {
+            CaptionLogger.d("CaptionsXmlParser.readTtml: " + textPool);
+        }
+    }
+
+    /**
+     * Appends the text of the current TEXT event, including that of nested spans, to the textBuffer. Reads the
+     * parser's character buffer directly, and collapses runs of whitespace into a single space, which is dropped at
+     * the start and end of each line.
+     */
+    private void appendText(XmlPullParser parser) {
+        char[] chars = parser.getTextCharacters(textRange);
+        if (chars == null) {
+            return;
+        }
+        int end = textRange[0] + textRange[1];
+        for (int i = textRange[0]; i < end; i++) {
+            char c = chars[i];
+            if (c == ' ' || c == '\n' || c == '\t' || c == '\r') {
+                pendingSpace = true;
+            } else {
+                int length = textBuffer.length();
+                if (pendingSpace && length > 0 && textBuffer.charAt(length - 1) != '\n') {
+                    textBuffer.append(' ');
+                }
+                pendingSpace = false;
+                textBuffer.append(c);
+            }
+        }
     }
 }
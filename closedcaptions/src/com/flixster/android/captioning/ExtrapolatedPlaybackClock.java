@@ -0,0 +1,89 @@
+package com.flixster.android.captioning;
+
+/**
+ * A PlaybackClock for players whose position is expensive to read. The position is sampled from the player at most
+ * once per sample interval, and extrapolated in between from a monotonic clock and the playback rate. Subclasses read
+ * the actual state of the player.
+ */
+public abstract class ExtrapolatedPlaybackClock implements PlaybackClock {
+
+    public static final int DEFAULT_SAMPLE_INTERVAL_MS = 500;
+
+    private final long sampleIntervalNanos;
+    private float playbackRate = 1.0f;
+    private boolean sampled;
+    private int sampledPosition;
+    private boolean sampledPlaying;
+    private long sampledNanos;
+    private int sampleCount;
+
+    public ExtrapolatedPlaybackClock() {
+        this(DEFAULT_SAMPLE_INTERVAL_MS);
+    }
+
+    /**
+     * @param sampleIntervalMs - The longest time for which the position is extrapolated before sampling the player
+     *            again
+     */
+    public ExtrapolatedPlaybackClock(int sampleIntervalMs) {
+        sampleIntervalNanos = sampleIntervalMs * 1000000L;
+    }
+
+    /** @return the position of the player in milliseconds */
+    protected abstract int readPosition();
+
+    /** @return whether the player is currently playing */
+    protected abstract boolean readPlaying();
+
+    /** @return the monotonic time in nanoseconds used to extrapolate the position */
+    protected long nanoTime() {
+        return System.nanoTime();
+    }
+
+    @Override
+    public int getPosition() {
+        long now = sampleIfStale();
+        if (!sampledPlaying) {
+            return sampledPosition;
+        }
+        return sampledPosition + (int) ((now - sampledNanos) * playbackRate / 1000000);
+    }
+
+    @Override
+    public boolean isPlaying() {
+        sampleIfStale();
+        return sampledPlaying;
+    }
+
+    @Override
+    public void sync() {
+        sampled = false;
+    }
+
+    /** Sets the speed at which the position advances while playing, 1.0 being normal speed */
+    public void setPlaybackRate(float rate) {
+        sync();
+        playbackRate = rate;
+    }
+
+    public float getPlaybackRate() {
+        return playbackRate;
+    }
+
+    /** @return the number of times the player has been sampled */
+    public int getSampleCount() {
+        return sampleCount;
+    }
+
+    private long sampleIfStale() {
+        long now = nanoTime();
+        if (!sampled || now - sampledNanos >= sampleIntervalNanos) {
+            sampledPosition = readPosition();
+            sampledPlaying = readPlaying();
+            sampledNanos = now;
+            sampled = true;
+            sampleCount++;
+        }
+        return now;
+    }
+}
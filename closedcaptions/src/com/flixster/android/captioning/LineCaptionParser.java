@@ -0,0 +1,203 @@
+package com.flixster.android.captioning;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Base class for the line-oriented caption formats, in which each cue is a timing line of the form
+ * "begin --> end [settings]" followed by its lines of text, and ended by a blank line. Lines outside of cues, such as
+ * headers, cue numbers and identifiers, are skipped. No XML parsing is involved.
+ */
+abstract class LineCaptionParser implements CaptionFormatParser {
+
+    private static final String CUE_ARROW = "-->";
+    private static final String CHARSET = "UTF-8";
+    private static final char BYTE_ORDER_MARK = '\uFEFF';
+
+    /** Collects the text of the current cue, reused for every cue of the parse */
+    protected final StringBuilder textBuffer = new StringBuilder(256);
+    private TextPool textPool = new TextPool();
+    private boolean complete;
+
+    protected int originX;
+    protected int originY;
+
+    @Override
+    public boolean parse(InputStream is, CaptionSink sink, int batchSize) {
+        complete = false;
+        textPool = new TextPool();
+        batchSize = Math.max(1, batchSize);
+        BufferedReader reader;
+        try {
+            reader = new BufferedReader(new InputStreamReader(is, CHARSET));
+        } catch (UnsupportedEncodingException e) {
+            CaptionLogger.w("LineCaptionParser.parse", e);
+            return false;
+        }
+
+        int[] defaultOrigin = TimedTextElement.parseOrigin(null);
+        List<TimedTextElement> ttElements = new ArrayList<TimedTextElement>(batchSize);
+        int previousBegin = -1;
+        int region = 0;
+        try {
+            // InputStreamReader keeps a UTF-8 byte order mark, which would hide a timing line on the first line
+            reader.mark(1);
+            if (reader.read() != BYTE_ORDER_MARK) {
+                reader.reset();
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int arrow = line.indexOf(CUE_ARROW);
+                if (arrow < 0) {
+                    continue;
+                }
+
+                int begin = parseTimestamp(line, 0, arrow);
+                int endStart = skipWhitespace(line, arrow + CUE_ARROW.length());
+                int endEnd = endStart;
+                while (endEnd < line.length() && !Character.isWhitespace(line.charAt(endEnd))) {
+                    endEnd++;
+                }
+                int end = parseTimestamp(line, endStart, endEnd);
+                if (begin < 0 || end < 0) {
+                    CaptionLogger.w("LineCaptionParser.parse could not parse timing \"" + line + "\"");
+                    continue;
+                }
+
+                originX = defaultOrigin[0];
+                originY = defaultOrigin[1];
+                applySettings(line, skipWhitespace(line, endEnd));
+
+                textBuffer.setLength(0);
+                while ((line = reader.readLine()) != null && line.trim().length() > 0) {
+                    if (textBuffer.length() > 0) {
+                        textBuffer.append('\n');
+                    }
+                    appendTextLine(line);
+                }
+
+                if (begin == previousBegin) {
+                    region++;
+                } else {
+                    region = 0;
+                }
+                previousBegin = begin;
+
+                String text = textBuffer.length() > 0 ? textPool.intern(textBuffer) : null;
+                ttElements.add(new TimedTextElement(begin, end, region, originX, originY, text));
+                if (ttElements.size() >= batchSize) {
+                    sink.onCaptions(ttElements);
+                    ttElements = new ArrayList<TimedTextElement>(batchSize);
+                }
+                if (line == null) {
+                    break;
+                }
+            }
+            complete = true;
+        } catch (IOException e) {
+            CaptionLogger.w("LineCaptionParser.parse", e);
+        }
+        if (!ttElements.isEmpty()) {
+            sink.onCaptions(ttElements);
+        }
+        if (CaptionLogger.inDebugMode()) {
+            CaptionLogger.d("LineCaptionParser.parse: " + textPool);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean isComplete() {
+        return complete;
+    }
+
+    @Override
+    public TextPool getTextPool() {
+        return textPool;
+    }
+
+    /**
+     * Reads the cue settings which follow the end time on the timing line, setting originX and originY if the settings
+     * position the cue. Settings are ignored by default.
+     */
+    protected void applySettings(String line, int start) {
+    }
+
+    /**
+     * Appends a line of cue text to the textBuffer. Markup tags, e.g. &lt;i&gt;, are removed by default. A '&lt;' which
+     * is not closed on the same line is kept as text.
+     */
+    protected void appendTextLine(String line) {
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            int tagEnd;
+            if (c == '<' && (tagEnd = line.indexOf('>', i + 1)) >= 0) {
+                i = tagEnd;
+            } else {
+                textBuffer.append(c);
+            }
+        }
+    }
+
+    /**
+     * Converts a timestamp of the form [hours:]minutes:seconds.fraction into milliseconds, where the fraction may be
+     * separated by either a '.' or a ','
+     *
+     * @return the time in milliseconds, or -1 if the timestamp could not be parsed
+     */
+    protected static int parseTimestamp(String line, int start, int end) {
+        start = skipWhitespace(line, start);
+        while (end > start && Character.isWhitespace(line.charAt(end - 1))) {
+            end--;
+        }
+
+        long seconds = 0;
+        int fields = 0;
+        int pos = start;
+        while (true) {
+            int digitStart = pos;
+            long value = 0;
+            while (pos < end && line.charAt(pos) >= '0' && line.charAt(pos) <= '9') {
+                value = value * 10 + (line.charAt(pos++) - '0');
+            }
+            if (pos == digitStart || ++fields > 3) {
+                return -1;
+            }
+            seconds = seconds * 60 + value;
+            if (pos < end && line.charAt(pos) == ':') {
+                pos++;
+            } else {
+                break;
+            }
+        }
+        if (fields < 2) {
+            return -1;
+        }
+
+        int millis = 0;
+        if (pos < end && (line.charAt(pos) == '.' || line.charAt(pos) == ',')) {
+            pos++;
+            int scale = 100;
+            while (pos < end && line.charAt(pos) >= '0' && line.charAt(pos) <= '9') {
+                millis += (line.charAt(pos++) - '0') * scale;
+                scale /= 10;
+            }
+        }
+        if (pos != end) {
+            return -1;
+        }
+        return (int) (seconds * 1000 + millis);
+    }
+
+    protected static int skipWhitespace(String line, int pos) {
+        while (pos < line.length() && Character.isWhitespace(line.charAt(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+}
@@ -0,0 +1,39 @@
+package com.flixster.android.captioning;
+
+/**
+ * A PlaybackClock whose position only changes when it is set, for driving captions deterministically, e.g. in tests
+ * and benchmarks, or from a player which reports its own position.
+ */
+public class ManualPlaybackClock implements PlaybackClock {
+
+    private int position;
+    private boolean playing;
+
+    @Override
+    public int getPosition() {
+        return position;
+    }
+
+    @Override
+    public boolean isPlaying() {
+        return playing;
+    }
+
+    @Override
+    public void sync() {
+        // Always in sync
+    }
+
+    public void setPosition(int position) {
+        this.position = position;
+    }
+
+    /** Moves the position forwards, or backwards if negative, by the number of milliseconds */
+    public void advance(int millis) {
+        position += millis;
+    }
+
+    public void setPlaying(boolean playing) {
+        this.playing = playing;
+    }
+}
@@ -0,0 +1,410 @@
+package com.flixster.android.captioning;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+/**
+ * Parses very large SMPTE-TT/TTML files by splitting them into chunks of p elements which are parsed in parallel, all
+ * sharing the TimingContext of the document's tt element. The captions are published to the sink in document order,
+ * and are identical to those produced by the CaptionsXmlParser.
+ *
+ * Unlike the CaptionsXmlParser, the whole file is read into memory before parsing begins, so this parser is meant for
+ * large local files rather than streaming over the network. Files smaller than two chunks are parsed sequentially.
+ */
+public class ParallelCaptionsXmlParser implements CaptionFormatParser {
+
+    /** The minimum size of a chunk, in characters */
+    public static final int MIN_CHUNK_LENGTH = 256 * 1024;
+
+    private static final int CHUNKS_PER_THREAD = 4;
+    private static final String FRAGMENT_START = "<fragment>";
+    private static final String FRAGMENT_END = "</fragment>";
+    private static final String TAG_P_END = "</p>";
+    private static final String DEFAULT_CHARSET = "UTF-8";
+
+    private final int threads;
+    private TextPool textPool = new TextPool();
+    private boolean complete;
+
+    /** Creates a parser which uses one thread per available processor */
+    public ParallelCaptionsXmlParser() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /** @param threads - The maximum number of threads to parse chunks on */
+    public ParallelCaptionsXmlParser(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    @Override
+    public boolean parse(InputStream is, CaptionSink sink, int batchSize) {
+        complete = false;
+        textPool = new TextPool();
+        batchSize = Math.max(1, batchSize);
+
+        String document;
+        try {
+            document = readDocument(is);
+        } catch (IOException e) {
+            CaptionLogger.w("ParallelCaptionsXmlParser.parse IOException on reading InputStream", e);
+            return false;
+        }
+
+        int chunkCount = Math.min(threads * CHUNKS_PER_THREAD, document.length() / MIN_CHUNK_LENGTH);
+        int ttEnd = chunkCount > 1 ? findRootTagEnd(document) : -1;
+        if (chunkCount <= 1 || threads == 1 || ttEnd < 0) {
+            CaptionsXmlParser parser = new CaptionsXmlParser();
+            boolean parsed = parser.parse(new StringReader(document), TimingContext.DEFAULT, sink, batchSize);
+            complete = parser.isComplete();
+            textPool = parser.getTextPool();
+            return parsed;
+        }
+
+        TimingContext timing = readTimingContext(document, ttEnd);
+        if (timing == null) {
+            return false;
+        }
+        List<Integer> boundaries = findChunkBoundaries(document, ttEnd, chunkCount);
+        if (CaptionLogger.inDebugMode()) {
+            CaptionLogger.d("ParallelCaptionsXmlParser.parse " + document.length() + " chars in "
+                    + (boundaries.size() - 1) + " chunks");
+        }
+
+        // Like the sequential parse, the captions read before the first error are published and the parse is reported
+        // as incomplete, whether a chunk failed to parse or the parse was interrupted
+        boolean allComplete = true;
+        List<TimedTextElement> ttElements = new ArrayList<TimedTextElement>(batchSize);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, boundaries.size() - 1));
+        try {
+            List<Future<Chunk>> futures = new ArrayList<Future<Chunk>>();
+            for (int i = 0; i < boundaries.size() - 1; i++) {
+                futures.add(executor.submit(new Chunk(document, boundaries.get(i), boundaries.get(i + 1), timing)));
+            }
+
+            for (Future<Chunk> future : futures) {
+                Chunk chunk = future.get();
+                if (chunk.parsed) {
+                    textPool.addCounts(chunk.textPool);
+                    for (TimedTextElement ttElement : chunk.ttElements) {
+                        ttElements.add(ttElement);
+                        if (ttElements.size() >= batchSize) {
+                            sink.onCaptions(ttElements);
+                            ttElements = new ArrayList<TimedTextElement>(batchSize);
+                        }
+                    }
+                }
+                if (!chunk.parsed || !chunk.complete) {
+                    allComplete = false;
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            allComplete = false;
+            CaptionLogger.w("ParallelCaptionsXmlParser.parse interrupted", e);
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            allComplete = false;
+            CaptionLogger.w("ParallelCaptionsXmlParser.parse", e);
+        } finally {
+            executor.shutdownNow();
+        }
+        if (!ttElements.isEmpty()) {
+            sink.onCaptions(ttElements);
+        }
+        complete = allComplete;
+        return true;
+    }
+
+    @Override
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /** @return a pool holding the combined counters of the pools used by each chunk of the last parse */
+    @Override
+    public TextPool getTextPool() {
+        return textPool;
+    }
+
+    /** Parses the p elements between two chunk boundaries */
+    private static class Chunk implements Callable<Chunk> {
+        private final String document;
+        private final int start;
+        private final int end;
+        private final TimingContext timing;
+
+        private final List<TimedTextElement> ttElements = new ArrayList<TimedTextElement>();
+        private TextPool textPool;
+        private boolean parsed;
+        private boolean complete;
+
+        private Chunk(String document, int start, int end, TimingContext timing) {
+            this.document = document;
+            this.start = start;
+            this.end = end;
+            this.timing = timing;
+        }
+
+        @Override
+        public Chunk call() {
+            // Only the p elements are copied, so that tags between them (e.g. div boundaries) cannot unbalance the
+            // fragment
+            StringBuilder fragment = new StringBuilder(end - start + FRAGMENT_START.length() + FRAGMENT_END.length());
+            fragment.append(FRAGMENT_START);
+            int pStart = findParagraphStart(document, start, end);
+            while (pStart >= 0) {
+                int pEnd = findParagraphEnd(document, pStart);
+                fragment.append(document, pStart, pEnd);
+                pStart = findParagraphStart(document, pEnd, end);
+            }
+            fragment.append(FRAGMENT_END);
+
+            CaptionsXmlParser parser = new CaptionsXmlParser();
+            CaptionSink sink = new CaptionSink() {
+                @Override
+                public void onCaptions(List<TimedTextElement> batch) {
+                    ttElements.addAll(batch);
+                }
+            };
+            parsed = parser.parse(new StringReader(fragment.toString()), timing, sink,
+                    CaptionsXmlParser.DEFAULT_BATCH_SIZE);
+            complete = parser.isComplete();
+            textPool = parser.getTextPool();
+            return this;
+        }
+    }
+
+    /**
+     * Splits the document into roughly equal chunks, each beginning at the start of a p element. A chunk never begins
+     * with a p element whose begin attribute matches the previous p element, so that the regions of stacked captions
+     * are counted within a single chunk.
+     *
+     * @return the chunk boundaries, starting with the start of the first p element and ending with the document length
+     */
+    private static List<Integer> findChunkBoundaries(String document, int from, int chunkCount) {
+        List<Integer> boundaries = new ArrayList<Integer>();
+        int length = document.length();
+        int first = findParagraphStart(document, from, length);
+        if (first < 0) {
+            boundaries.add(length);
+            boundaries.add(length);
+            return boundaries;
+        }
+        boundaries.add(first);
+
+        for (int i = 1; i < chunkCount; i++) {
+            int target = Math.max(first + (int) ((long) (length - first) * i / chunkCount),
+                    boundaries.get(boundaries.size() - 1) + 1);
+            int previous = findParagraphStart(document, target, length);
+            while (previous >= 0) {
+                int next = findParagraphStart(document, findParagraphEnd(document, previous), length);
+                if (next < 0) {
+                    previous = -1;
+                } else if (!equal(beginAttribute(document, previous), beginAttribute(document, next))) {
+                    boundaries.add(next);
+                    break;
+                } else {
+                    previous = next;
+                }
+            }
+            if (previous < 0) {
+                break;
+            }
+        }
+        boundaries.add(length);
+        return boundaries;
+    }
+
+    /**
+     * @return the index of the next p start tag between from and to, skipping comments and CDATA sections, or -1 if
+     *         there is none
+     */
+    private static int findParagraphStart(String document, int from, int to) {
+        int i = document.indexOf('<', from);
+        while (i >= 0 && i < to) {
+            if (document.startsWith("<!--", i)) {
+                int commentEnd = document.indexOf("-->", i + 4);
+                if (commentEnd < 0) {
+                    return -1;
+                }
+                i = document.indexOf('<', commentEnd + 3);
+            } else if (document.startsWith("<![CDATA[", i)) {
+                int cdataEnd = document.indexOf("]]>", i + 9);
+                if (cdataEnd < 0) {
+                    return -1;
+                }
+                i = document.indexOf('<', cdataEnd + 3);
+            } else if (i + 2 < document.length() && document.charAt(i + 1) == 'p'
+                    && isTagNameEnd(document.charAt(i + 2))) {
+                return i;
+            } else {
+                i = document.indexOf('<', i + 1);
+            }
+        }
+        return -1;
+    }
+
+    /** @return the index just past the end of the p element starting at pStart */
+    private static int findParagraphEnd(String document, int pStart) {
+        int tagEnd = document.indexOf('>', pStart);
+        if (tagEnd < 0) {
+            return document.length();
+        }
+        if (document.charAt(tagEnd - 1) == '/') {
+            return tagEnd + 1;
+        }
+        int pEnd = document.indexOf(TAG_P_END, tagEnd);
+        return pEnd < 0 ? document.length() : pEnd + TAG_P_END.length();
+    }
+
+    /** @return the value of the begin attribute of the tag starting at tagStart, or null if it has none */
+    private static String beginAttribute(String document, int tagStart) {
+        int tagEnd = document.indexOf('>', tagStart);
+        if (tagEnd < 0) {
+            return null;
+        }
+        String name = TimedTextElement.ATTR_BEGIN;
+        int i = document.indexOf(name, tagStart);
+        while (i >= 0 && i < tagEnd) {
+            int pos = i + name.length();
+            if (Character.isWhitespace(document.charAt(i - 1))) {
+                while (pos < tagEnd && Character.isWhitespace(document.charAt(pos))) {
+                    pos++;
+                }
+                if (pos < tagEnd && document.charAt(pos) == '=') {
+                    pos++;
+                    while (pos < tagEnd && Character.isWhitespace(document.charAt(pos))) {
+                        pos++;
+                    }
+                    char quote = document.charAt(pos);
+                    int valueEnd = document.indexOf(quote, pos + 1);
+                    if ((quote == '"' || quote == '\'') && valueEnd > 0 && valueEnd < tagEnd) {
+                        return document.substring(pos + 1, valueEnd);
+                    }
+                }
+            }
+            i = document.indexOf(name, pos);
+        }
+        return null;
+    }
+
+    /** @return the index of the '>' ending the start tag of the document's root element, or -1 if it is not found */
+    private static int findRootTagEnd(String document) {
+        int i = document.indexOf('<');
+        while (i >= 0 && i + 1 < document.length()) {
+            char c = document.charAt(i + 1);
+            if (c == '?') {
+                i = document.indexOf("?>", i);
+            } else if (document.startsWith("<!--", i)) {
+                i = document.indexOf("-->", i);
+            } else if (c == '!') {
+                i = document.indexOf('>', i);
+            } else {
+                return document.indexOf('>', i);
+            }
+            i = i < 0 ? -1 : document.indexOf('<', i);
+        }
+        return -1;
+    }
+
+    /** Reads the TimingContext from the root tt element, which ends at ttEnd */
+    private static TimingContext readTimingContext(String document, int ttEnd) {
+        try {
+            XmlPullParser parser = XmlPullParserFactory.newInstance().newPullParser();
+            parser.setInput(new StringReader(document.substring(0, ttEnd + 1)));
+            int eventType = parser.getEventType();
+            while (eventType != XmlPullParser.START_TAG) {
+                eventType = parser.next();
+            }
+            if (parser.getName().equals(TimedTextElement.TAG_TT)) {
+                return CaptionsXmlParser.readTimingContext(parser);
+            }
+            return TimingContext.DEFAULT;
+        } catch (XmlPullParserException e) {
+            CaptionLogger.w("ParallelCaptionsXmlParser.readTimingContext", e);
+        } catch (IOException e) {
+            CaptionLogger.w("ParallelCaptionsXmlParser.readTimingContext", e);
+        }
+        return null;
+    }
+
+    /** Reads the whole stream, decoding it with the encoding named in the XML declaration or UTF-8 by default */
+    private static String readDocument(InputStream is) throws IOException {
+        DocumentBytes bytes = new DocumentBytes(Math.max(is.available(), 8192));
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = is.read(buffer)) != -1) {
+            bytes.write(buffer, 0, read);
+        }
+
+        String charset = DEFAULT_CHARSET;
+        String head = bytes.head(200);
+        int encoding = head.startsWith("<?xml") ? head.indexOf("encoding") : -1;
+        if (encoding >= 0 && encoding < head.indexOf("?>")) {
+            int quote = encoding + "encoding".length();
+            while (quote < head.length() && head.charAt(quote) != '"' && head.charAt(quote) != '\'') {
+                quote++;
+            }
+            int quoteEnd = quote < head.length() ? head.indexOf(head.charAt(quote), quote + 1) : -1;
+            if (quoteEnd > quote) {
+                charset = head.substring(quote + 1, quoteEnd);
+            }
+        }
+
+        String document;
+        try {
+            document = bytes.decode(charset);
+        } catch (UnsupportedEncodingException e) {
+            CaptionLogger.w("ParallelCaptionsXmlParser unsupported encoding " + charset + ", using " + DEFAULT_CHARSET);
+            document = bytes.decode(DEFAULT_CHARSET);
+        }
+        return document.length() > 0 && document.charAt(0) == '\uFEFF' ? document.substring(1) : document;
+    }
+
+    /** The bytes of a document, which are decoded from its buffer without first copying them as toByteArray() does */
+    private static class DocumentBytes extends ByteArrayOutputStream {
+        private static final byte[] UTF8_BOM = { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF };
+
+        private DocumentBytes(int size) {
+            super(size);
+        }
+
+        /** @return up to length bytes from the start of the document, one char per byte, to find the XML declaration */
+        private String head(int length) throws UnsupportedEncodingException {
+            int start = hasUtf8Bom() ? UTF8_BOM.length : 0;
+            return new String(buf, start, Math.max(0, Math.min(count, start + length) - start), "ISO-8859-1");
+        }
+
+        /** @return the document decoded with the charset, skipping a UTF-8 byte order mark */
+        private String decode(String charset) throws UnsupportedEncodingException {
+            int start = hasUtf8Bom() ? UTF8_BOM.length : 0;
+            return new String(buf, start, count - start, charset);
+        }
+
+        private boolean hasUtf8Bom() {
+            return count >= UTF8_BOM.length && buf[0] == UTF8_BOM[0] && buf[1] == UTF8_BOM[1] && buf[2] == UTF8_BOM[2];
+        }
+    }
+
+    private static boolean isTagNameEnd(char c) {
+        return c == '>' || c == '/' || Character.isWhitespace(c);
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
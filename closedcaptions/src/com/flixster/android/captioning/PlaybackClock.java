@@ -0,0 +1,21 @@
+package com.flixster.android.captioning;
+
+/**
+ * The source of the playback position against which captions are displayed. Implementations exist for VideoView and
+ * for a manually driven clock, and other players may be supported by implementing this interface and passing it to
+ * CaptionedPlayer.setPlaybackClock().
+ */
+public interface PlaybackClock {
+
+    /** @return the current playback position in milliseconds */
+    public abstract int getPosition();
+
+    /** @return whether the playback position is currently advancing */
+    public abstract boolean isPlaying();
+
+    /**
+     * Called when playback has been seeked, paused or resumed, so that a clock which caches the state of the player
+     * reads it again
+     */
+    public abstract void sync();
+}
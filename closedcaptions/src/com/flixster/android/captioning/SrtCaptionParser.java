@@ -0,0 +1,24 @@
+package com.flixster.android.captioning;
+
+/**
+ * Class used to retrieve the data from SubRip (SRT) files. Markup tags, e.g. &lt;i&gt;, and override codes, e.g.
+ * {\an8}, are removed from the text.
+ */
+public class SrtCaptionParser extends LineCaptionParser {
+
+    @Override
+    protected void appendTextLine(String line) {
+        int start = textBuffer.length();
+        super.appendTextLine(line);
+
+        int open;
+        while ((open = textBuffer.indexOf("{\\", start)) >= 0) {
+            int close = textBuffer.indexOf("}", open);
+            if (close < 0) {
+                return;
+            }
+            textBuffer.delete(open, close + 1);
+            start = open;
+        }
+    }
+}
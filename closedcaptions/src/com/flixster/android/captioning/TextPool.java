@@ -0,0 +1,131 @@
+package com.flixster.android.captioning;
+
+/**
+ * A pool of Strings used for the duration of a single parse, so that caption texts and attribute values which repeat
+ * throughout a file (e.g. "[MUSIC]", speaker tags, origins) share a single String instance. Text may be looked up
+ * directly from a CharSequence, in which case a String is only created the first time the text is seen.
+ */
+public class TextPool {
+
+    /** Approximate heap size of a String and its backing char array, excluding the characters themselves */
+    private static final int STRING_OVERHEAD_BYTES = 40;
+    private static final int INITIAL_CAPACITY = 256;
+
+    private String[] table = new String[INITIAL_CAPACITY];
+    private int[] hashes = new int[INITIAL_CAPACITY];
+    private int size;
+
+    private int lookups;
+    private int hits;
+    private long savedBytes;
+
+    /**
+     * @return the pooled String with the same characters as the sequence, or null if the sequence is null
+     */
+    public String intern(CharSequence chars) {
+        if (chars == null) {
+            return null;
+        }
+        int length = chars.length();
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + chars.charAt(i);
+        }
+
+        lookups++;
+        int mask = table.length - 1;
+        int slot = hash & mask;
+        String pooled;
+        while ((pooled = table[slot]) != null) {
+            if (hashes[slot] == hash && contentEquals(pooled, chars, length)) {
+                hits++;
+                savedBytes += STRING_OVERHEAD_BYTES + 2 * length;
+                return pooled;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        pooled = chars.toString();
+        table[slot] = pooled;
+        hashes[slot] = hash;
+        if (++size * 2 > table.length) {
+            rehash();
+        }
+        return pooled;
+    }
+
+    /** @return the number of Strings held by the pool */
+    public int size() {
+        return size;
+    }
+
+    /** @return the number of times intern() has been called with a non-null value */
+    public int getLookups() {
+        return lookups;
+    }
+
+    /** @return the number of times intern() returned an already pooled String */
+    public int getHits() {
+        return hits;
+    }
+
+    /** @return an estimate of the heap saved by sharing pooled Strings rather than holding separate copies */
+    public long getSavedBytes() {
+        return savedBytes;
+    }
+
+    /**
+     * Adds the lookup and hit counters of another pool to those of this pool, for reporting on work split across
+     * several pools. The Strings themselves are not shared.
+     */
+    public void addCounts(TextPool other) {
+        lookups += other.lookups;
+        hits += other.hits;
+        savedBytes += other.savedBytes;
+    }
+
+    /** Removes all Strings from the pool and resets its counters */
+    public void clear() {
+        table = new String[INITIAL_CAPACITY];
+        hashes = new int[INITIAL_CAPACITY];
+        size = 0;
+        lookups = 0;
+        hits = 0;
+        savedBytes = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "TextPool[" + size + " strings, " + hits + "/" + lookups + " hits, ~" + savedBytes + " bytes saved]";
+    }
+
+    private static boolean contentEquals(String str, CharSequence chars, int length) {
+        if (str.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (str.charAt(i) != chars.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehash() {
+        String[] oldTable = table;
+        int[] oldHashes = hashes;
+        table = new String[oldTable.length * 2];
+        hashes = new int[oldTable.length * 2];
+        int mask = table.length - 1;
+        for (int i = 0; i < oldTable.length; i++) {
+            if (oldTable[i] != null) {
+                int slot = oldHashes[i] & mask;
+                while (table[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = oldTable[i];
+                hashes[slot] = oldHashes[i];
+            }
+        }
+    }
+}
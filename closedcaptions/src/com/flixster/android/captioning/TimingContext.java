@@ -0,0 +1,391 @@
+package com.flixster.android.captioning;
+
+/**
+ * The timing parameters of a single SMPTE-TT/TTML document, as declared on its root tt element. The parameters are
+ * resolved once per document into the constants needed to convert time-expressions, so that creating each
+ * TimedTextElement does no further attribute parsing.
+ */
+public final class TimingContext {
+
+    /** The context used when a document declares no timing parameters: 30 fps, non drop frame, 1 tick per second */
+    public static final TimingContext DEFAULT = new TimingContext(SmpteFrameRate.SMPTE_30, 1, 1);
+
+    /** Fractional digits beyond this precision are ignored when parsing time-expressions */
+    private static final long MAX_FRACTION_SCALE = 1000000000l;
+    private static final double TICK_EPSILON = 0.000001;
+    private static final double MILLIS_EPSILON = 0.000001;
+
+    private enum SmpteDropMode {
+        DROP_NTSC, DROP_PAL, NON_DROP;
+
+        protected static SmpteDropMode match(String dropMode) {
+            if ("dropNTSC".equals(dropMode)) {
+                return DROP_NTSC;
+            } else if ("dropPAL".equals(dropMode)) {
+                return DROP_PAL;
+            } else if ("nonDrop".equals(dropMode)) {
+                return NON_DROP;
+            } else {
+                return NON_DROP;
+            }
+        }
+    }
+
+    /** Frame-rates, along with their durations measured in ticks of a 90kHz clock */
+    private enum SmpteFrameRate {
+        SMPTE_2398(3753.75, 90090), // 23.98 fps (Film Sync)
+        SMPTE_24(3750, 90000), // 24 fps
+        SMPTE_25(3600, 90000), // 25 fps (PAL)
+        SMPTE_2997_DROP(3003, 90090, 5399994.6), // 29.97 fps drop frame (NTSC)
+        SMPTE_2997_NONDROP(3003, 90090), // 29.97 fps non drop frame (NTSC)
+        SMPTE_30(3000, 90000); // 30 fps
+
+        private final double ticksPerFrame;
+        private final double ticksPerSecond;
+        private final double ticksPerMinute;
+        private final double ticksPerHour;
+
+        private SmpteFrameRate(double ticksPerFrame, double ticksPerSecond) {
+            this(ticksPerFrame, ticksPerSecond, 60 * ticksPerSecond);
+        }
+
+        private SmpteFrameRate(double ticksPerFrame, double ticksPerSecond, double ticksPerMinute) {
+            this.ticksPerFrame = ticksPerFrame;
+            this.ticksPerSecond = ticksPerSecond;
+            this.ticksPerMinute = ticksPerMinute;
+            this.ticksPerHour = 60 * ticksPerMinute;
+        }
+
+        protected static SmpteFrameRate match(double frameRate) {
+            int rateFloored = (int) Math.floor(frameRate);
+            switch (rateFloored) {
+                case 23:
+                    return SMPTE_2398;
+                case 24:
+                    return SMPTE_24;
+                case 25:
+                    return SMPTE_25;
+                case 29:
+                    return SMPTE_2997_NONDROP;
+                case 30:
+                    return SMPTE_30;
+                case 50:
+                    return SMPTE_25;
+                case 60:
+                    return SMPTE_30;
+                case 59:
+                    return SMPTE_2997_NONDROP;
+                default:
+                    return SMPTE_30;
+            }
+        }
+    }
+
+    private final SmpteFrameRate rate;
+    private final double ticksPerFrame;
+    private final double ticksPerSecond;
+    private final double ticksPerMinute;
+    private final double ticksPerHour;
+    private final boolean roundFrameTicks;
+    private final double tickRate;
+    private final int subFrameRate;
+
+    private TimingContext(SmpteFrameRate rate, double tickRate, int subFrameRate) {
+        this.rate = rate;
+        this.ticksPerFrame = rate.ticksPerFrame;
+        this.ticksPerSecond = rate.ticksPerSecond;
+        this.ticksPerMinute = rate.ticksPerMinute;
+        this.ticksPerHour = rate.ticksPerHour;
+        // Film sync frames are rounded up to the next whole tick
+        this.roundFrameTicks = rate == SmpteFrameRate.SMPTE_2398;
+        this.tickRate = tickRate;
+        this.subFrameRate = subFrameRate;
+    }
+
+    /**
+     * Resolves the timing parameters of a document. Any of the values may be null, in which case the TTML defaults
+     * are used.
+     * 
+     * @param dropMode - Value of the ttp:dropMode attribute
+     * @param frameRate - Value of the ttp:frameRate attribute
+     * @param frameRateMultiplier - Value of the ttp:frameRateMultiplier attribute, as "numerator denominator"
+     * @param tickRate - Value of the ttp:tickRate attribute
+     */
+    public static TimingContext create(String dropMode, String frameRate, String frameRateMultiplier, String tickRate) {
+        return create(dropMode, frameRate, frameRateMultiplier, null, tickRate);
+    }
+
+    /**
+     * Resolves the timing parameters of a document. Any of the values may be null, in which case the TTML defaults
+     * are used.
+     * 
+     * @param dropMode - Value of the ttp:dropMode attribute
+     * @param frameRate - Value of the ttp:frameRate attribute
+     * @param frameRateMultiplier - Value of the ttp:frameRateMultiplier attribute, as "numerator denominator"
+     * @param subFrameRate - Value of the ttp:subFrameRate attribute
+     * @param tickRate - Value of the ttp:tickRate attribute
+     */
+    public static TimingContext create(String dropMode, String frameRate, String frameRateMultiplier,
+            String subFrameRate, String tickRate) {
+        SmpteFrameRate rate;
+        switch (SmpteDropMode.match(dropMode)) {
+            case DROP_NTSC:
+            case DROP_PAL:
+                rate = SmpteFrameRate.SMPTE_2997_DROP;
+                break;
+            case NON_DROP:
+            default:
+                rate = SmpteFrameRate.match(effectiveFrameRate(frameRate, frameRateMultiplier));
+                break;
+        }
+
+        int subFrameRateValue = parseSubFrameRate(subFrameRate);
+        double tickRateValue = 0;
+        if (tickRate != null) {
+            try {
+                tickRateValue = Integer.parseInt(tickRate.trim());
+            } catch (NumberFormatException e) {
+                CaptionLogger.w("TimingContext.create could not parse tickRate \"" + tickRate + "\"");
+            }
+        }
+        if (tickRateValue <= 0) {
+            // Ticks default to sub-frames when a frame-rate is declared, and to seconds otherwise
+            tickRateValue = frameRate != null
+                    ? effectiveFrameRate(frameRate, frameRateMultiplier) * subFrameRateValue : 1;
+        }
+
+        CaptionLogger.d("TimingContext.create: rate " + rate + ", tickRate " + tickRateValue + ", subFrameRate "
+                + subFrameRateValue);
+        return new TimingContext(rate, tickRateValue, subFrameRateValue);
+    }
+
+    /** @return the frame-rate multiplied by its multiplier, or 30 if no frame-rate is declared */
+    private static double effectiveFrameRate(String frameRate, String frameRateMultiplier) {
+        if (frameRate == null) {
+            return 30;
+        }
+        try {
+            double frameRateValue = Integer.parseInt(frameRate.trim());
+            if (frameRateMultiplier != null) {
+                String[] multiplierStr = frameRateMultiplier.trim().split("\\s+");
+                int frameRateNumerator = Integer.parseInt(multiplierStr[0]);
+                int frameRateDenominator = Integer.parseInt(multiplierStr[1]);
+                frameRateValue = frameRateValue * frameRateNumerator / frameRateDenominator;
+            }
+            return frameRateValue;
+        } catch (NumberFormatException e) {
+            CaptionLogger.w("TimingContext could not parse frameRate \"" + frameRate + "\", frameRateMultiplier \""
+                    + frameRateMultiplier + "\"");
+        } catch (ArrayIndexOutOfBoundsException e) {
+            CaptionLogger.w("TimingContext could not parse frameRateMultiplier \"" + frameRateMultiplier + "\"");
+        }
+        return 30;
+    }
+
+    /** @return the value of the ttp:subFrameRate attribute, or 1 if it is not declared */
+    private static int parseSubFrameRate(String subFrameRate) {
+        if (subFrameRate != null) {
+            try {
+                int value = Integer.parseInt(subFrameRate.trim());
+                if (value > 0) {
+                    return value;
+                }
+            } catch (NumberFormatException e) {
+                CaptionLogger.w("TimingContext could not parse subFrameRate \"" + subFrameRate + "\"");
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * Converts a given time-expression into milliseconds, using the frame-rate of the document. Scans the characters
+     * directly rather than splitting the string, so no objects are allocated. The common HH:MM:SS.fff and HH:MM:SS:FF
+     * shapes are checked for first.
+     * 
+     * @param timeExpression - String with format defined at
+     *            <http://www.w3.org/TR/ttaf1-dfxp/#timing-value-timeExpression>
+     * @return - Time in milliseconds, or 0 if the time-expression could not be parsed
+     */
+    public int toMillis(String timeExpression) {
+        if (timeExpression == null) {
+            CaptionLogger.w("Could not parse timeExpression \"null\"");
+            return 0;
+        }
+
+        int length = timeExpression.length();
+        if (length == 12 || length == 11) {
+            int hours = parseDigits(timeExpression, 0, 2);
+            int minutes = parseDigits(timeExpression, 3, 5);
+            int seconds = parseDigits(timeExpression, 6, 8);
+            if (hours >= 0 && minutes >= 0 && seconds >= 0 && timeExpression.charAt(2) == ':'
+                    && timeExpression.charAt(5) == ':') {
+                char separator = timeExpression.charAt(8);
+                if (length == 12 && separator == '.') { // HH:MM:SS.fff
+                    int millis = parseDigits(timeExpression, 9, 12);
+                    if (millis >= 0) {
+                        return convert(hours, minutes, seconds + millis / 1000.0, 0);
+                    }
+                } else if (length == 11 && separator == ':') { // HH:MM:SS:FF
+                    int frames = parseDigits(timeExpression, 9, 11);
+                    if (frames >= 0) {
+                        return convert(hours, minutes, seconds, frames);
+                    }
+                }
+            }
+        }
+
+        int start = 0;
+        int end = length;
+        while (start < end && timeExpression.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && timeExpression.charAt(end - 1) <= ' ') {
+            end--;
+        }
+
+        int pos = start;
+        long value = 0;
+        while (pos < end && isDigit(timeExpression.charAt(pos))) {
+            value = value * 10 + (timeExpression.charAt(pos++) - '0');
+        }
+        if (pos == start) {
+            CaptionLogger.w("Could not parse timeExpression \"" + timeExpression + "\"");
+            return 0;
+        }
+
+        if (pos < end && timeExpression.charAt(pos) == ':') {
+            // Clock time: hours ":" minutes ":" seconds ( fraction | ":" frames ( "." sub-frames )? )?
+            long hours = value;
+            long minutes = 0;
+            int digitStart = ++pos;
+            while (pos < end && isDigit(timeExpression.charAt(pos))) {
+                minutes = minutes * 10 + (timeExpression.charAt(pos++) - '0');
+            }
+            if (pos == digitStart || pos >= end || timeExpression.charAt(pos) != ':') {
+                CaptionLogger.w("Could not parse timeExpression \"" + timeExpression + "\"");
+                return 0;
+            }
+            long seconds = 0;
+            digitStart = ++pos;
+            while (pos < end && isDigit(timeExpression.charAt(pos))) {
+                seconds = seconds * 10 + (timeExpression.charAt(pos++) - '0');
+            }
+            if (pos == digitStart) {
+                CaptionLogger.w("Could not parse timeExpression \"" + timeExpression + "\"");
+                return 0;
+            }
+
+            long fraction = 0;
+            long fractionScale = 1;
+            double frames = 0;
+            if (pos < end && timeExpression.charAt(pos) == '.') {
+                digitStart = ++pos;
+                while (pos < end && isDigit(timeExpression.charAt(pos))) {
+                    if (fractionScale < MAX_FRACTION_SCALE) {
+                        fraction = fraction * 10 + (timeExpression.charAt(pos) - '0');
+                        fractionScale *= 10;
+                    }
+                    pos++;
+                }
+                if (pos == digitStart) {
+                    CaptionLogger.w("Could not parse timeExpression \"" + timeExpression + "\"");
+                    return 0;
+                }
+            } else if (pos < end && timeExpression.charAt(pos) == ':') {
+                digitStart = ++pos;
+                while (pos < end && isDigit(timeExpression.charAt(pos))) {
+                    frames = frames * 10 + (timeExpression.charAt(pos++) - '0');
+                }
+                if (pos < end && timeExpression.charAt(pos) == '.' && pos > digitStart) {
+                    // Sub-frames are a whole count, of which there are subFrameRate per frame
+                    int subFrameStart = ++pos;
+                    long subFrames = 0;
+                    while (pos < end && isDigit(timeExpression.charAt(pos))) {
+                        subFrames = subFrames * 10 + (timeExpression.charAt(pos++) - '0');
+                    }
+                    if (pos == subFrameStart) {
+                        CaptionLogger.w("Could not parse timeExpression \"" + timeExpression + "\"");
+                        return 0;
+                    }
+                    frames += (double) subFrames / subFrameRate;
+                }
+                if (pos == digitStart) {
+                    CaptionLogger.w("Could not parse timeExpression \"" + timeExpression + "\"");
+                    return 0;
+                }
+            }
+            if (pos != end) {
+                CaptionLogger.w("Could not parse timeExpression \"" + timeExpression + "\"");
+                return 0;
+            }
+            return convert(hours, minutes, seconds + (double) fraction / fractionScale, frames);
+        }
+
+        // Offset time: time-count fraction? metric
+        long fraction = 0;
+        long fractionScale = 1;
+        if (pos < end && timeExpression.charAt(pos) == '.') {
+            pos++;
+            while (pos < end && isDigit(timeExpression.charAt(pos))) {
+                if (fractionScale < MAX_FRACTION_SCALE) {
+                    fraction = fraction * 10 + (timeExpression.charAt(pos) - '0');
+                    fractionScale *= 10;
+                }
+                pos++;
+            }
+        }
+        double count = value + (double) fraction / fractionScale;
+        int metricLength = end - pos;
+        char metric = metricLength > 0 ? timeExpression.charAt(pos) : 0;
+        if (metricLength == 1) {
+            switch (metric) {
+                case 'h': // hours
+                    return convert(count, 0, 0, 0);
+                case 'm': // minutes
+                    return convert(0, count, 0, 0);
+                case 's': // seconds
+                    return convert(0, 0, count, 0);
+                case 'f': // frames
+                    return convert(0, 0, 0, count);
+                case 't': // ticks
+                    return (int) (count * 1000 / tickRate + MILLIS_EPSILON);
+            }
+        } else if (metricLength == 2 && metric == 'm' && timeExpression.charAt(pos + 1) == 's') { // milliseconds
+            return convert(0, 0, count / 1000.0, 0);
+        }
+        CaptionLogger.w("Could not parse timeExpression \"" + timeExpression + "\"");
+        return 0;
+    }
+
+    private int convert(double hours, double minutes, double seconds, double frames) {
+        double frameTicks = ticksPerFrame * frames;
+        if (roundFrameTicks) {
+            frameTicks = Math.ceil(frameTicks);
+        }
+        double ticks = ticksPerHour * hours + ticksPerMinute * minutes + ticksPerSecond * seconds + frameTicks;
+        // The epsilon absorbs the representation error of decimal fractions, e.g. 0.7 * 90000 = 62999.99...
+        return (int) ((long) (ticks + TICK_EPSILON) * 1000 / 90000);
+    }
+
+    /** @return the value of the decimal digits between start and end, or -1 if any of them is not a digit */
+    private static int parseDigits(String str, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            char c = str.charAt(i);
+            if (!isDigit(c)) {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    @Override
+    public String toString() {
+        return "TimingContext[" + rate + ", tickRate " + tickRate + ", subFrameRate " + subFrameRate + "]";
+    }
+}
@@ -0,0 +1,69 @@
+package com.flixster.android.captioning;
+
+import android.os.Build;
+import android.view.Choreographer;
+
+/**
+ * In Android 4.1+, the Choreographer calls back on each display frame, which allows caption changes to be applied on
+ * the frame nearest the time at which they are due. For versions 4.0 and lower, frame callbacks are not supported and
+ * create() returns null.
+ */
+abstract class VersionedFrameHelper {
+
+    /** Receives the frame callbacks posted through a VersionedFrameHelper */
+    interface FrameListener {
+
+        /**
+         * @param frameTimeNanos - The time at which the frame started rendering, in the System.nanoTime() time base
+         */
+        public abstract void onFrame(long frameTimeNanos);
+    }
+
+    protected final FrameListener listener;
+
+    protected VersionedFrameHelper(FrameListener listener) {
+        this.listener = listener;
+    }
+
+    /** Calls the listener, once, on the next display frame */
+    public abstract void postFrameCallback();
+
+    /** Removes a pending frame callback */
+    public abstract void removeFrameCallback();
+
+    /** @return a helper for the OS version calling back the listener, or null if frame callbacks are not supported */
+    public static VersionedFrameHelper create(FrameListener listener) {
+        if (Build.VERSION.SDK_INT >= 16) {
+            return new JellyBeanFrameHelper(listener);
+        }
+        return null;
+    }
+
+    /**
+     * The version for OS 4.1+, which posts callbacks to the Choreographer of the main thread
+     */
+    private static class JellyBeanFrameHelper extends VersionedFrameHelper implements Choreographer.FrameCallback {
+
+        private final Choreographer choreographer = Choreographer.getInstance();
+
+        public JellyBeanFrameHelper(FrameListener listener) {
+            super(listener);
+        }
+
+        @Override
+        public void postFrameCallback() {
+            choreographer.removeFrameCallback(this);
+            choreographer.postFrameCallback(this);
+        }
+
+        @Override
+        public void removeFrameCallback() {
+            choreographer.removeFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            listener.onFrame(frameTimeNanos);
+        }
+    }
+}
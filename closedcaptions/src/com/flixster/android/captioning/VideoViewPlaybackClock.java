@@ -0,0 +1,26 @@
+package com.flixster.android.captioning;
+
+import android.widget.VideoView;
+
+/**
+ * The PlaybackClock of a VideoView. Reading the position of a VideoView is an IPC call into the media server, so the
+ * position is sampled infrequently and extrapolated in between.
+ */
+public class VideoViewPlaybackClock extends ExtrapolatedPlaybackClock {
+
+    private final VideoView videoView;
+
+    public VideoViewPlaybackClock(VideoView videoView) {
+        this.videoView = videoView;
+    }
+
+    @Override
+    protected int readPosition() {
+        return videoView.getCurrentPosition();
+    }
+
+    @Override
+    protected boolean readPlaying() {
+        return videoView.isPlaying();
+    }
+}
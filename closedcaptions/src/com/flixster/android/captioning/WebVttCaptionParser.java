@@ -0,0 +1,149 @@
+package com.flixster.android.captioning;
+
+/**
+ * Class used to retrieve the data from WebVTT files. The "position" and "line" settings of a cue, given as percentages,
+ * are converted into the top left origin of the caption where the alignment of the cue allows it. Markup tags are
+ * removed from the text, and character references are decoded.
+ */
+public class WebVttCaptionParser extends LineCaptionParser {
+
+    private static final String SETTING_POSITION = "position:";
+    private static final String SETTING_LINE = "line:";
+    private static final String SETTING_SIZE = "size:";
+    private static final String SETTING_ALIGN = "align:";
+
+    /** The fractions of the cue box width to the left of its position, for each position alignment */
+    private static final float LINE_LEFT = 0f;
+    private static final float CENTER = 0.5f;
+    private static final float LINE_RIGHT = 1f;
+    private static final float UNKNOWN = -1f;
+
+    /**
+     * Converts the position to the left edge of the cue box, which is only known if the cue is aligned on its left, or
+     * its size is given. Likewise the line is only used when the cue box is aligned on it by its top edge, the default.
+     */
+    @Override
+    protected void applySettings(String line, int start) {
+        int position = -1;
+        float positionAlign = UNKNOWN;
+        int linePercent = -1;
+        boolean lineStart = true;
+        int size = -1;
+        float align = CENTER;
+
+        int pos = start;
+        while (pos < line.length()) {
+            int settingEnd = pos;
+            while (settingEnd < line.length() && !Character.isWhitespace(line.charAt(settingEnd))) {
+                settingEnd++;
+            }
+            if (line.startsWith(SETTING_POSITION, pos)) {
+                int valueStart = pos + SETTING_POSITION.length();
+                position = parsePercentage(line, valueStart, settingEnd);
+                int comma = line.indexOf(',', valueStart);
+                if (comma >= 0 && comma < settingEnd) {
+                    positionAlign = parseAlignment(line.substring(comma + 1, settingEnd));
+                }
+            } else if (line.startsWith(SETTING_LINE, pos)) {
+                int valueStart = pos + SETTING_LINE.length();
+                linePercent = parsePercentage(line, valueStart, settingEnd);
+                int comma = line.indexOf(',', valueStart);
+                lineStart = comma < 0 || comma >= settingEnd || line.startsWith("start", comma + 1);
+            } else if (line.startsWith(SETTING_SIZE, pos)) {
+                size = parsePercentage(line, pos + SETTING_SIZE.length(), settingEnd);
+            } else if (line.startsWith(SETTING_ALIGN, pos)) {
+                align = parseAlignment(line.substring(pos + SETTING_ALIGN.length(), settingEnd));
+            }
+            pos = skipWhitespace(line, settingEnd);
+        }
+
+        if (position >= 0) {
+            // An automatic position alignment follows the text alignment
+            float anchor = positionAlign != UNKNOWN ? positionAlign : align;
+            if (anchor == LINE_LEFT) {
+                originX = position;
+            } else if (anchor != UNKNOWN && size >= 0) {
+                originX = Math.max(0, position - (int) (size * anchor));
+            }
+        }
+        if (linePercent >= 0 && lineStart) {
+            originY = linePercent;
+        }
+    }
+
+    @Override
+    protected void appendTextLine(String line) {
+        int start = textBuffer.length();
+        super.appendTextLine(line);
+        decodeCharacterReferences(start);
+    }
+
+    /** Replaces the character references supported by WebVTT, from the start index of the textBuffer onwards */
+    private void decodeCharacterReferences(int start) {
+        int amp;
+        while ((amp = textBuffer.indexOf("&", start)) >= 0) {
+            int semicolon = textBuffer.indexOf(";", amp);
+            if (semicolon < 0) {
+                return;
+            }
+            String reference = textBuffer.substring(amp + 1, semicolon);
+            char decoded;
+            if (reference.equals("amp")) {
+                decoded = '&';
+            } else if (reference.equals("lt")) {
+                decoded = '<';
+            } else if (reference.equals("gt")) {
+                decoded = '>';
+            } else if (reference.equals("nbsp")) {
+                decoded = '\u00A0';
+            } else if (reference.equals("lrm")) {
+                decoded = '\u200E';
+            } else if (reference.equals("rlm")) {
+                decoded = '\u200F';
+            } else {
+                start = amp + 1;
+                continue;
+            }
+            textBuffer.replace(amp, semicolon + 1, String.valueOf(decoded));
+            start = amp + 1;
+        }
+    }
+
+    /**
+     * @return the fraction of the cue box width to the left of its position for a text or position alignment, or
+     *         UNKNOWN for "auto" and unknown values
+     */
+    private static float parseAlignment(String value) {
+        if (value.equals("start") || value.equals("left") || value.equals("line-left")) {
+            return LINE_LEFT;
+        } else if (value.equals("center") || value.equals("middle")) {
+            return CENTER;
+        } else if (value.equals("end") || value.equals("right") || value.equals("line-right")) {
+            return LINE_RIGHT;
+        }
+        return UNKNOWN;
+    }
+
+    /**
+     * Reads the whole percentage from a setting value such as "10%" or "10.5%,start"
+     * 
+     * @return the percentage, or -1 if the value is not a percentage
+     */
+    private static int parsePercentage(String line, int start, int end) {
+        int value = 0;
+        int pos = start;
+        while (pos < end && line.charAt(pos) >= '0' && line.charAt(pos) <= '9') {
+            value = value * 10 + (line.charAt(pos++) - '0');
+        }
+        if (pos == start) {
+            return -1;
+        }
+        if (pos < end && line.charAt(pos) == '.') {
+            pos++;
+            while (pos < end && line.charAt(pos) >= '0' && line.charAt(pos) <= '9') {
+                pos++;
+            }
+        }
+        return pos < end && line.charAt(pos) == '%' ? value : -1;
+    }
+}
@@ -0,0 +1,119 @@
+package com.flixster.android.captioning;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.test.AndroidTestCase;
+import android.text.StaticLayout;
+import android.view.View.MeasureSpec;
+
+/**
+ * Checks that a CaptionView is only drawn when its caption changes. Frames are simulated as the view hierarchy runs
+ * them: the view is measured and laid out if it requested a layout, and drawn if it was invalidated.
+ */
+public class CaptionViewDrawTest extends AndroidTestCase {
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 360;
+    private static final int FRAMES = 30;
+
+    private CountingCaptionView view;
+    private Canvas canvas;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        view = new CountingCaptionView(getContext());
+        view.applyPreferences();
+        canvas = new Canvas(Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.ARGB_8888));
+        runFrames(1);
+        view.draws = 0;
+    }
+
+    public void testStaticCaptionIsDrawnOnce() {
+        view.setCaptionText("A caption which does not change", null);
+        runFrames(FRAMES);
+        assertTrue("Drawn " + view.draws + " times in " + FRAMES + " frames", view.draws <= 2);
+        assertFalse(view.isLayoutRequested());
+    }
+
+    public void testEachChangeIsDrawn() {
+        view.setCaptionText("First caption", null);
+        runFrames(FRAMES);
+        int draws = view.draws;
+        assertTrue(draws >= 1);
+
+        view.setCaptionText("Second caption,\nwith two lines", null);
+        runFrames(FRAMES);
+        assertTrue("Drawn " + (view.draws - draws) + " times in " + FRAMES + " frames", view.draws - draws <= 2);
+        assertTrue(view.draws > draws);
+    }
+
+    public void testOutlinedCaptionIsDrawnOnce() {
+        CaptionPreferences prefs = CaptionPreferences.instance();
+        int edgeStyle = prefs.getTextEdgeStyle();
+        prefs.setTextEdgeStyle(CaptionPreferences.TEXT_EDGE_UNIFORM);
+        try {
+            view.applyPreferences();
+            view.setCaptionText("An outlined caption", null);
+            runFrames(FRAMES);
+            assertTrue("Drawn " + view.draws + " times in " + FRAMES + " frames", view.draws <= 2);
+        } finally {
+            prefs.setTextEdgeStyle(edgeStyle);
+        }
+    }
+
+    public void testPreparedLayoutKeepsTextViewLayoutCurrent() {
+        String first = "First caption";
+        view.setCaptionText(first, prepareLayout(first));
+        runFrames(1);
+        assertEquals(first, view.getLayout().getText().toString());
+        assertEquals(1, view.getLineCount());
+
+        String second = "Second caption,\nwith two lines";
+        view.setCaptionText(second, prepareLayout(second));
+        runFrames(1);
+        assertEquals(second, view.getLayout().getText().toString());
+        assertEquals(2, view.getLineCount());
+    }
+
+    private StaticLayout prepareLayout(String text) {
+        return CaptionView.createLayout(text, view.getTextWidth(WIDTH), view.newLayoutPaint());
+    }
+
+    private void runFrames(int frames) {
+        for (int i = 0; i < frames; i++) {
+            if (view.isLayoutRequested()) {
+                view.measure(MeasureSpec.makeMeasureSpec(WIDTH, MeasureSpec.AT_MOST),
+                        MeasureSpec.makeMeasureSpec(HEIGHT, MeasureSpec.AT_MOST));
+                view.layout(0, 0, view.getMeasuredWidth(), view.getMeasuredHeight());
+            }
+            if (view.invalidated) {
+                view.invalidated = false;
+                view.draw(canvas);
+            }
+        }
+    }
+
+    /** Counts its draws, and records invalidation, which a view outside of a window cannot report */
+    private static class CountingCaptionView extends CaptionView {
+        int draws;
+        boolean invalidated = true;
+
+        CountingCaptionView(Context context) {
+            super(context);
+        }
+
+        @Override
+        public void invalidate() {
+            invalidated = true;
+            super.invalidate();
+        }
+
+        @Override
+        protected void onDraw(Canvas canvas) {
+            draws++;
+            super.onDraw(canvas);
+        }
+    }
+}
@@ -1,11 +1,16 @@
 package com.flixster.android.captioning.example;
 
 import android.content.pm.ActivityInfo;
+import android.media.MediaPlayer;
+import android.media.MediaPlayer.OnCompletionListener;
+import android.media.MediaPlayer.OnInfoListener;
+import android.media.MediaPlayer.OnPreparedListener;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
 import android.view.Window;
 import android.widget.MediaController;
+import android.widget.MediaController.MediaPlayerControl;
 import android.widget.Toast;
 import android.widget.VideoView;
 
@@ -25,11 +30,39 @@ public class ExamplePlayer extends CaptionedPlayer {
 
         setContentView(R.layout.example_player_layout);
 
-        VideoView videoView = (VideoView) findViewById(R.id.video_view);
-        MediaController mediaController = new MediaController(this);
+        final VideoView videoView = (VideoView) findViewById(R.id.video_view);
+        final MediaController mediaController = new MediaController(this);
         mediaController.setAnchorView(videoView);
         videoView.setMediaController(mediaController);
 
+        // Route the controls through the CaptionedPlayer, so that captions are updated as soon as the video is seeked,
+        // paused or resumed. The VideoView attaches itself to the controller each time it opens the video.
+        videoView.setOnPreparedListener(new OnPreparedListener() {
+            @Override
+            public void onPrepared(MediaPlayer mp) {
+                mediaController.setMediaPlayer(new CaptionedPlayerControl(videoView));
+
+                // Stop updating captions while the video is buffering
+                mp.setOnInfoListener(new OnInfoListener() {
+                    @Override
+                    public boolean onInfo(MediaPlayer mp, int what, int extra) {
+                        if (what == MediaPlayer.MEDIA_INFO_BUFFERING_START) {
+                            setPlayerState(PLAYER_STATE_BUFFERING);
+                        } else if (what == MediaPlayer.MEDIA_INFO_BUFFERING_END) {
+                            setPlayerState(videoView.isPlaying() ? PLAYER_STATE_PLAYING : PLAYER_STATE_PAUSED);
+                        }
+                        return false;
+                    }
+                });
+            }
+        });
+        videoView.setOnCompletionListener(new OnCompletionListener() {
+            @Override
+            public void onCompletion(MediaPlayer mp) {
+                setPlayerState(PLAYER_STATE_COMPLETED);
+            }
+        });
+
         // Create and group the CaptionViews for the CaptionedPlayer
         CaptionView[] captionViews = new CaptionView[4];
         captionViews[0] = (CaptionView) findViewById(R.id.caption1);
@@ -39,12 +72,19 @@ public class ExamplePlayer extends CaptionedPlayer {
 
         Bundle b = getIntent().getExtras();
 
+        // Apply caption changes on the display frame nearest the time they are due, where supported
+        setFrameSyncedCaptions(true);
+
+        // Draw outlined and shadowed captions from Bitmaps, keeping up to 4MB of them
+        setCaptionBitmapCacheSize(4 * 1024 * 1024);
+
         // Pass the necessary objects to the CaptionedPlayer
         prepareCaptions(videoView, captionViews, b.getString("captions"), captionHandler);
 
         // Start the video
         videoView.setVideoPath(b.getString("video"));
         videoView.start();
+        setPlayerState(PLAYER_STATE_PLAYING);
     }
 
     // Notified upon the success or failure of prepareCaptions()
@@ -53,8 +93,8 @@ public class ExamplePlayer extends CaptionedPlayer {
         public void handleMessage(Message msg) {
             switch (msg.what) {
 
-            // Start displaying captions on successful load
-                case NOTIFY_FETCH_SUCCESS:
+            // Start displaying captions as soon as the first ones are loaded, the rest are added as they arrive
+                case NOTIFY_FETCH_FIRST_CAPTIONS:
                     rollCaptions();
                     break;
 
@@ -74,6 +114,74 @@ public class ExamplePlayer extends CaptionedPlayer {
         }
     };
 
+    // Controls the VideoView, notifying the CaptionedPlayer of any change to playback
+    private class CaptionedPlayerControl implements MediaPlayerControl {
+        private final VideoView videoView;
+
+        public CaptionedPlayerControl(VideoView videoView) {
+            this.videoView = videoView;
+        }
+
+        @Override
+        public void start() {
+            videoView.start();
+            setPlayerState(PLAYER_STATE_PLAYING);
+        }
+
+        @Override
+        public void pause() {
+            videoView.pause();
+            setPlayerState(PLAYER_STATE_PAUSED);
+        }
+
+        @Override
+        public void seekTo(int pos) {
+            videoView.seekTo(pos);
+            notifyPlaybackChanged();
+        }
+
+        @Override
+        public int getDuration() {
+            return videoView.getDuration();
+        }
+
+        @Override
+        public int getCurrentPosition() {
+            return videoView.getCurrentPosition();
+        }
+
+        @Override
+        public boolean isPlaying() {
+            return videoView.isPlaying();
+        }
+
+        @Override
+        public int getBufferPercentage() {
+            return videoView.getBufferPercentage();
+        }
+
+        @Override
+        public boolean canPause() {
+            return videoView.canPause();
+        }
+
+        @Override
+        public boolean canSeekBackward() {
+            return videoView.canSeekBackward();
+        }
+
+        @Override
+        public boolean canSeekForward() {
+            return videoView.canSeekForward();
+        }
+
+        // Only called by the controller on API 18 and above
+        @Override
+        public int getAudioSessionId() {
+            return 0;
+        }
+    }
+
     @Override
     public void onDestroy() {
         // Stop the thread that displays captions